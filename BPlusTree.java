@@ -0,0 +1,457 @@
+/*
+  In-memory B+tree of int keys.
+
+  A binary tree costs a cache miss per level; with millions of keys
+  that is 20 or more per lookup.  Here each node holds up to ORDER
+  keys in a plain int array (64 keys are four cache lines), so a
+  lookup touches only a handful of nodes, each searched in cache.
+  Keys live in the leaves, which are linked both ways for range
+  scans.
+
+  Duplicates are allowed, as in BinarySearchTree.  A separator is the
+  first key of the child to its right when it was split off, so equal
+  keys may lie on both sides of an equal separator; lookups descend
+  to the leftmost child that may hold the key and then follow the
+  leaf links.
+
+  Deletion is relaxed: keys are removed from their leaf and a leaf
+  that becomes empty is unlinked from its parent, but nodes are not
+  merged with their siblings.  Node occupancy can drop after many
+  deletes, but lookups stay correct and O(log n) in the number of
+  nodes, and deletes never cascade restructuring.
+
+  Implements OrderedIndex<Integer> so it can stand in for a
+  BinarySearchTree under RunBST and the benchmarks.
+
+  USAGE: java BPlusTree [n] [order]
+*/
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+public class BPlusTree implements OrderedIndex<Integer> {
+    public static final int DEFAULT_ORDER = 64;
+
+    /*
+      A node.  Leaves have keys[0..n-1] and no children.  Inner nodes
+      have n children and n-1 separators in keys; child i holds keys
+      between keys[i-1] and keys[i], both included.  Arrays have room
+      for one extra entry, so a node can overflow before it is split.
+    */
+    private static final class Node {
+	final int keys[];
+	final Node children[]; // null for a leaf
+	int n;
+	Node prev, next;       // neighbouring leaves
+
+	Node(int order, boolean leaf) {
+	    keys = new int[order + 1];
+	    children = leaf ? null : new Node[order + 2];
+	}
+
+	boolean isLeaf() { return children == null; }
+    }
+
+    private final int order; // most keys in a leaf, children in an inner node
+    private Node root;
+    private int size;
+    private int height = 1;  // levels, leaves included
+
+    // path of the last descent: nodes and the child index taken
+    private Node path[] = new Node[16];
+    private int pathIdx[] = new int[16];
+
+    public BPlusTree() {
+	this(DEFAULT_ORDER);
+    }
+
+    /** @param order most keys per leaf and children per inner node. */
+    public BPlusTree(int order) {
+	if (order < 4) throw new IllegalArgumentException("order must be at least 4");
+	this.order = order;
+	root = new Node(order, true);
+    }
+
+    public int size() {
+	return size;
+    }
+
+    /** @return number of levels, leaves included. */
+    public int height() {
+	return height;
+    }
+
+    /* first i in keys[0..n-1] with keys[i] >= key */
+    private static int lowerBound(int keys[], int n, int key) {
+	int lo = 0, hi = n;
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (keys[mid] < key) lo = mid + 1;
+	    else hi = mid;
+	}
+	return lo;
+    }
+
+    /* first i in keys[0..n-1] with keys[i] > key */
+    private static int upperBound(int keys[], int n, int key) {
+	int lo = 0, hi = n;
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (keys[mid] <= key) lo = mid + 1;
+	    else hi = mid;
+	}
+	return lo;
+    }
+
+    /*
+      Descend to the leftmost leaf that may hold key (or, with upper,
+      to the rightmost), recording the path.  Returns the depth of
+      the leaf in path.
+    */
+    private int descend(int key, boolean upper) {
+	if (path.length < height) {
+	    path = Arrays.copyOf(path, 2 * height);
+	    pathIdx = Arrays.copyOf(pathIdx, 2 * height);
+	}
+	Node t = root;
+	int d = 0;
+	while (!t.isLeaf()) {
+	    int i = upper ? upperBound(t.keys, t.n - 1, key) : lowerBound(t.keys, t.n - 1, key);
+	    path[d] = t;
+	    pathIdx[d++] = i;
+	    t = t.children[i];
+	}
+	path[d] = t;
+	return d;
+    }
+
+    /** @return true if key is in the tree. */
+    public boolean contains(int key) {
+	Node t = root;
+	while (!t.isLeaf()) t = t.children[lowerBound(t.keys, t.n - 1, key)];
+	int i = lowerBound(t.keys, t.n, key);
+	if (i == t.n) {
+	    // all keys of this leaf are smaller; an equal one may start the next
+	    t = t.next;
+	    if (t == null) return false;
+	    i = 0;
+	}
+	return t.keys[i] == key;
+    }
+
+    /** Add key, after any keys equal to it. */
+    public void add(int key) {
+	int d = descend(key, true);
+	Node leaf = path[d];
+	int i = upperBound(leaf.keys, leaf.n, key);
+	System.arraycopy(leaf.keys, i, leaf.keys, i + 1, leaf.n - i);
+	leaf.keys[i] = key;
+	leaf.n++;
+	size++;
+	if (leaf.n > order) split(d, i == leaf.n - 1 && leaf.next == null);
+    }
+
+    /*
+      Split the overfull node at depth d of path, and its parents as
+      needed.  appending says the key went to the end of the last
+      leaf; then the nodes on the right edge are split unevenly, so
+      keys added in increasing order fill nodes instead of leaving
+      them half empty.
+    */
+    private void split(int d, boolean appending) {
+	Node t = path[d];
+	while (true) {
+	    boolean leaf = t.isLeaf();
+	    Node right = new Node(order, leaf);
+	    int sep;
+	    if (leaf) {
+		int keep = appending ? t.n - 1 : (t.n + 1) / 2;
+		right.n = t.n - keep;
+		System.arraycopy(t.keys, keep, right.keys, 0, right.n);
+		t.n = keep;
+		sep = right.keys[0];
+		right.next = t.next;
+		if (t.next != null) t.next.prev = right;
+		right.prev = t;
+		t.next = right;
+	    }
+	    else {
+		// n children, n-1 keys; keys[keep-1] moves up
+		int keep = appending ? t.n - 1 : (t.n + 1) / 2;
+		right.n = t.n - keep;
+		System.arraycopy(t.children, keep, right.children, 0, right.n);
+		System.arraycopy(t.keys, keep, right.keys, 0, right.n - 1);
+		Arrays.fill(t.children, keep, t.n, null);
+		sep = t.keys[keep - 1];
+		t.n = keep;
+	    }
+
+	    if (d == 0) { // new root
+		Node r = new Node(order, false);
+		r.children[0] = t;
+		r.children[1] = right;
+		r.keys[0] = sep;
+		r.n = 2;
+		root = r;
+		height++;
+		return;
+	    }
+	    Node parent = path[--d];
+	    int i = pathIdx[d]; // t is child i of parent
+	    System.arraycopy(parent.children, i + 1, parent.children, i + 2, parent.n - i - 1);
+	    System.arraycopy(parent.keys, i, parent.keys, i + 1, parent.n - 1 - i);
+	    parent.children[i + 1] = right;
+	    parent.keys[i] = sep;
+	    parent.n++;
+	    if (parent.n <= order) return;
+	    t = parent;
+	}
+    }
+
+    /** Remove one key equal to key. @return false if there was none. */
+    public boolean remove(int key) {
+	int d = descend(key, false);
+	Node leaf = path[d];
+	int i = lowerBound(leaf.keys, leaf.n, key);
+	if (i == leaf.n) {
+	    // the key can only be first in the next leaf; move the path there
+	    if (leaf.next == null || leaf.next.keys[0] != key) return false;
+	    d = nextLeaf(d);
+	    leaf = path[d];
+	    i = 0;
+	}
+	if (leaf.keys[i] != key) return false;
+	System.arraycopy(leaf.keys, i + 1, leaf.keys, i, leaf.n - i - 1);
+	leaf.n--;
+	size--;
+	if (leaf.n == 0 && d > 0) unlink(d);
+	return true;
+    }
+
+    /* move the path at depth d to the next leaf; returns its depth */
+    private int nextLeaf(int d) {
+	int up = d - 1;
+	while (pathIdx[up] == path[up].n - 1) up--; // there is a next leaf
+	pathIdx[up]++;
+	Node t = path[up].children[pathIdx[up]];
+	for (int k = up + 1; k < d; k++) {
+	    path[k] = t;
+	    pathIdx[k] = 0;
+	    t = t.children[0];
+	}
+	path[d] = t;
+	return d;
+    }
+
+    /* remove the empty node at depth d of path, and parents left empty */
+    private void unlink(int d) {
+	Node t = path[d];
+	if (t.isLeaf()) {
+	    if (t.prev != null) t.prev.next = t.next;
+	    if (t.next != null) t.next.prev = t.prev;
+	}
+	while (d > 0) {
+	    Node parent = path[--d];
+	    int i = pathIdx[d];
+	    System.arraycopy(parent.children, i + 1, parent.children, i, parent.n - i - 1);
+	    parent.children[parent.n - 1] = null;
+	    // drop the separator left of child i, or right of it for child 0
+	    int k = (i == 0) ? 0 : i - 1;
+	    if (parent.n > 1)
+		System.arraycopy(parent.keys, k + 1, parent.keys, k, parent.n - 2 - k);
+	    parent.n--;
+	    if (parent.n > 0) break;
+	}
+	// a root with a single child is replaced by it
+	while (!root.isLeaf() && root.n == 1) {
+	    root = root.children[0];
+	    height--;
+	}
+	if (!root.isLeaf() && root.n == 0) { // everything went
+	    root = new Node(order, true);
+	    height = 1;
+	}
+    }
+
+    /**
+       Call action on every key in lo..hi, in order, following the
+       leaf links.
+       @return number of keys visited.
+    */
+    public int forEachInRange(int lo, int hi, IntConsumer action) {
+	if (lo > hi) return 0;
+	Node t = root;
+	while (!t.isLeaf()) t = t.children[lowerBound(t.keys, t.n - 1, lo)];
+	int i = lowerBound(t.keys, t.n, lo);
+	int count = 0;
+	for (; t != null; t = t.next, i = 0) {
+	    for (; i < t.n; i++) {
+		if (t.keys[i] > hi) return count;
+		action.accept(t.keys[i]);
+		count++;
+	    }
+	}
+	return count;
+    }
+
+    /** @return the keys in order. */
+    public int[] toArray() {
+	int a[] = new int[size];
+	Node t = root;
+	while (!t.isLeaf()) t = t.children[0];
+	for (int k = 0; t != null; t = t.next) {
+	    System.arraycopy(t.keys, 0, a, k, t.n);
+	    k += t.n;
+	}
+	return a;
+    }
+
+    /* OrderedIndex */
+
+    public void addElement(Integer o) {
+	add(o);
+    }
+
+    public Integer getElement(Integer o) {
+	if (o == null) return null;
+	return contains(o) ? o : null;
+    }
+
+    public Integer removeElement(Integer o) {
+	if (o == null) return null;
+	return remove(o) ? o : null;
+    }
+
+    public void inOrder() {
+	inOrder(System.out);
+    }
+
+    public void inOrder(PrintStream out) {
+	for (int k : toArray()) out.print(k + " ");
+    }
+
+    /* check order, separators, leaf links and counts; returns number of keys */
+    private int check() {
+	int n = check(root, Long.MIN_VALUE, Long.MAX_VALUE, 1);
+	Node t = root, prev = null;
+	while (!t.isLeaf()) t = t.children[0];
+	int linked = 0;
+	for (; t != null; prev = t, t = t.next) {
+	    if (t.prev != prev) throw new IllegalStateException("bad leaf links");
+	    linked += t.n;
+	}
+	if (n != size || linked != size) throw new IllegalStateException("bad size");
+	return n;
+    }
+
+    private int check(Node t, long lo, long hi, int level) {
+	if (t.isLeaf()) {
+	    if (level != height) throw new IllegalStateException("leaves at different depths");
+	    if (t.n == 0 && t != root) throw new IllegalStateException("empty leaf");
+	    for (int i = 0; i < t.n; i++)
+		if (t.keys[i] < lo || t.keys[i] > hi || (i > 0 && t.keys[i] < t.keys[i-1]))
+		    throw new IllegalStateException("keys out of order");
+	    return t.n;
+	}
+	if (t.n < 1 || (t == root && t.n < 2)) throw new IllegalStateException("empty node");
+	int n = 0;
+	for (int i = 0; i < t.n; i++) {
+	    long l = i == 0 ? lo : t.keys[i-1];
+	    long h = i == t.n - 1 ? hi : t.keys[i];
+	    if (l > h) throw new IllegalStateException("separators out of order");
+	    n += check(t.children[i], l, h, level + 1);
+	}
+	return n;
+    }
+
+    /*
+      Check against a TreeMap of counts under random adds, lookups
+      and removes with many duplicates, then time the tree against
+      BinarySearchTree and TreeMap on n random keys.
+    */
+    public static void main(String[] args) {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+	int order = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ORDER;
+	Workload work = new Workload(42);
+
+	for (int range : new int[] { 50, 5000 }) {
+	    BPlusTree test = new BPlusTree(4);
+	    TreeMap<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+	    int ops[] = work.uniform(300_000, 5), ks[] = work.uniform(300_000, range);
+	    for (int i = 0; i < ops.length; i++) {
+		int k = ks[i];
+		boolean ok;
+		if (ops[i] < 2) {
+		    test.add(k);
+		    counts.merge(k, 1, Integer::sum);
+		    ok = true;
+		}
+		else if (ops[i] == 2) ok = test.contains(k) == counts.containsKey(k);
+		else {
+		    ok = test.remove(k) == counts.containsKey(k);
+		    if (counts.containsKey(k) && counts.merge(k, -1, Integer::sum) == 0)
+			counts.remove(k);
+		}
+		if (!ok) {
+		    System.out.println("Failed B+tree test at op " + i);
+		    System.exit(-1);
+		}
+		if (i % 10_000 == 0) test.check();
+	    }
+	    test.check();
+	    int expect[] = counts.entrySet().stream()
+		.flatMapToInt(e -> java.util.stream.IntStream.generate(e::getKey).limit(e.getValue()))
+		.toArray();
+	    int lo = range / 4, hi = range / 2;
+	    int inRange = (int) Arrays.stream(expect).filter(x -> x >= lo && x <= hi).count();
+	    if (!Arrays.equals(expect, test.toArray())
+		|| test.forEachInRange(lo, hi, x -> { }) != inRange) {
+		System.out.println("Failed B+tree contents test");
+		System.exit(-1);
+	    }
+	}
+	BPlusTree sorted = new BPlusTree(order);
+	for (int i = 0; i < 100_000; i++) sorted.add(i);
+	sorted.check();
+	for (int i = 0; i < 100_000; i += 2) sorted.remove(i);
+	sorted.check();
+	System.out.println("B+tree tests passed; 100000 increasing keys fill "
+			   + sorted.height() + " levels");
+
+	int keys[] = work.uniform(n, Integer.MAX_VALUE);
+	int probes[] = work.uniform(n, n);
+	Integer boxed[] = new Integer[n];
+	for (int i = 0; i < n; i++) boxed[i] = keys[i];
+
+	for (int round = 0; round < 3; round++) {
+	    long t0 = System.nanoTime();
+	    BPlusTree bp = new BPlusTree(order);
+	    for (int k : keys) bp.add(k);
+	    long t1 = System.nanoTime();
+	    long hits = 0;
+	    for (int p : probes) if (bp.contains(keys[p])) hits++;
+	    long t2 = System.nanoTime();
+	    BinarySearchTree<Integer> bst = new BinarySearchTree<Integer>();
+	    for (Integer k : boxed) bst.addElement(k);
+	    long t3 = System.nanoTime();
+	    for (int p : probes) if (bst.getElement(boxed[p]) != null) hits++;
+	    long t4 = System.nanoTime();
+	    TreeMap<Integer, Integer> tm = new TreeMap<Integer, Integer>();
+	    for (Integer k : boxed) tm.put(k, k);
+	    long t5 = System.nanoTime();
+	    for (int p : probes) if (tm.containsKey(boxed[p])) hits++;
+	    long t6 = System.nanoTime();
+	    if (hits != 3L * n) {
+		System.out.println("Failed lookup test");
+		System.exit(-1);
+	    }
+	    System.out.printf("%d keys, ns/op add/get: B+tree(%d) %.0f/%.0f (height %d),"
+			      + " BST %.0f/%.0f, TreeMap %.0f/%.0f%n", n, order,
+			      (double) (t1 - t0) / n, (double) (t2 - t1) / n, bp.height(),
+			      (double) (t3 - t2) / n, (double) (t4 - t3) / n,
+			      (double) (t5 - t4) / n, (double) (t6 - t5) / n);
+	}
+    }
+}
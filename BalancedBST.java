@@ -0,0 +1,587 @@
+/**
+   A weight-balanced BinarySearchTree (Adams, 1992, with the
+   parameters delta = 3, gamma = 2 of Hirai and Yamamoto, 2011).  It
+   is a multiset tree: equal elements share one node that counts
+   them, as in BinarySearchTree's multiset mode, and balance depends
+   only on the number of distinct elements.
+
+   Every operation is built on join(l, k, r), which links two trees
+   and a middle element whose keys are in order, rebalancing only
+   along one spine.  From join come split(key) and the set
+   operations union, intersection and difference, which take
+   O(m log(n/m + 1)) work for trees of sizes m <= n (Blelloch,
+   Ferizovic and Sun, 2016).  Their two recursive calls touch
+   disjoint subtrees, so above a size cutoff they run in parallel as
+   fork/join tasks.  On counts union adds, intersection keeps the
+   smaller and difference subtracts.
+
+   Set operations and split take the nodes of their arguments, which
+   are left empty.  Subtree sizes (in nodes) are kept as in
+   BinarySearchTree, so drawing and snapshots work unchanged; each
+   node also keeps the number of elements of its subtree, so size()
+   and split need no walk over the counts.
+
+   USAGE: java BalancedBST [n] [cutoff]
+*/
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class BalancedBST<TYPE extends Comparable> extends BinarySearchTree<TYPE> {
+    private static final int DELTA = 3, GAMMA = 2;
+    public static final int DEFAULT_CUTOFF = 1 << 12;
+
+    private final int cutoff; // set operations on fewer nodes run sequentially
+
+    public BalancedBST() { this(DEFAULT_CUTOFF); }
+
+    /**
+       @param cutoff set operations on trees with fewer nodes than this
+       between them do not fork.
+    */
+    public BalancedBST(int cutoff) {
+	super(true);
+	this.cutoff = cutoff;
+    }
+
+    /* node that also counts the elements of its subtree */
+    private static class WNode<TYPE> extends Node<TYPE> {
+	int total = 1;
+
+	WNode(TYPE o) { super(o); }
+    }
+
+    protected BTNode<TYPE> newNode(TYPE o) {
+	return new WNode<TYPE>(o);
+    }
+
+    /* number of elements in the subtree rooted at t, duplicates included */
+    private static int total(BTNode t) {
+	return t == null ? 0 : ((WNode) t).total;
+    }
+
+    /** @return number of elements in the tree, duplicates included. */
+    public int size() {
+	return total(root);
+    }
+
+    /** The parts of a tree split at a key. */
+    public static class Parts<TYPE extends Comparable> {
+	public final BalancedBST<TYPE> less, greater;
+	public final TYPE element; // equal to the key, or null
+	public final int count;    // number of elements equal to the key
+
+	Parts(BalancedBST<TYPE> less, TYPE element, int count, BalancedBST<TYPE> greater) {
+	    this.less = less;
+	    this.element = element;
+	    this.count = count;
+	    this.greater = greater;
+	}
+    }
+
+    /**
+       Adds an element to the tree; an equal one already there just
+       counts one more.
+    */
+    public void addElement(TYPE o) {
+	root = insert(root, o);
+    }
+
+    /**
+       Remove one element with matching key and return it.
+       Returns null if no match found.
+    */
+    public TYPE removeElement(TYPE o) {
+	if (o == null) return null;
+	BTNode<TYPE> found[] = new BTNode[1];
+	root = delete(root, o, found);
+	return found[0] == null ? null : found[0].element;
+    }
+
+    /**
+       Split into the elements less than key and those greater, and
+       the one equal to it if any.  This tree is left empty.
+    */
+    public Parts<TYPE> split(TYPE key) {
+	Split<TYPE> s = split(root, key);
+	root = null;
+	return new Parts<TYPE>(tree(s.less), s.mid == null ? null : s.mid.element,
+			       s.mid == null ? 0 : ((Node) s.mid).count, tree(s.greater));
+    }
+
+    /**
+       Tree of the elements of left, then key, then those of right.
+       All of left must be less than key and all of right greater.
+       left and right are left empty.
+    */
+    public static <T extends Comparable> BalancedBST<T> join(BalancedBST<T> left, T key,
+							    BalancedBST<T> right) {
+	BalancedBST<T> t = new BalancedBST<T>(left.cutoff);
+	t.root = join(left.root, t.newNode(key), right.root);
+	left.root = right.root = null;
+	return t;
+    }
+
+    /** Add the elements of other to this tree, adding the counts; other is left empty. */
+    public void union(BalancedBST<TYPE> other) {
+	root = run(UNION, root, take(other));
+    }
+
+    /**
+       Keep only the elements also in other, each as many times as
+       in the tree that has fewer; other is left empty.
+    */
+    public void intersection(BalancedBST<TYPE> other) {
+	root = run(INTERSECTION, root, take(other));
+    }
+
+    /** Remove the elements that are in other, one for each; other is left empty. */
+    public void difference(BalancedBST<TYPE> other) {
+	root = run(DIFFERENCE, root, take(other));
+    }
+
+    private BTNode<TYPE> take(BalancedBST<TYPE> other) {
+	if (other == this) throw new IllegalArgumentException("set operation on itself");
+	BTNode<TYPE> t = other.root;
+	other.root = null;
+	return t;
+    }
+
+    private BalancedBST<TYPE> tree(BTNode<TYPE> t) {
+	BalancedBST<TYPE> b = new BalancedBST<TYPE>(cutoff);
+	b.root = t;
+	return b;
+    }
+
+    /* weight of a subtree: its size plus one */
+    private static int weight(BTNode t) {
+	return size(t) + 1;
+    }
+
+    private static void update(BTNode t) {
+	((Node) t).size = 1 + size(t.left) + size(t.right);
+	((WNode) t).total = ((Node) t).count + total(t.left) + total(t.right);
+    }
+
+    /* a snapshot set the sizes and counts only; redo the totals, children first */
+    void snapshotLoaded() {
+	ArrayDeque<BTNode<TYPE>> stack = new ArrayDeque<BTNode<TYPE>>();
+	ArrayDeque<BTNode<TYPE>> order = new ArrayDeque<BTNode<TYPE>>();
+	if (root != null) stack.push(root);
+	while (!stack.isEmpty()) {
+	    BTNode<TYPE> t = stack.pop();
+	    order.push(t);
+	    if (t.left != null) stack.push(t.left);
+	    if (t.right != null) stack.push(t.right);
+	}
+	while (!order.isEmpty()) update(order.pop());
+    }
+
+    private static BTNode rotateLeft(BTNode t) {
+	BTNode r = t.right;
+	t.right = r.left;
+	r.left = t;
+	update(t);
+	update(r);
+	return r;
+    }
+
+    private static BTNode rotateRight(BTNode t) {
+	BTNode l = t.left;
+	t.left = l.right;
+	l.right = t;
+	update(t);
+	update(l);
+	return l;
+    }
+
+    /*
+      Restore the balance of t after one side grew or shrank a
+      little, with a single or double rotation.
+    */
+    private static BTNode balance(BTNode t) {
+	update(t);
+	int wl = weight(t.left), wr = weight(t.right);
+	if (DELTA * wl < wr) {
+	    if (weight(t.right.left) >= GAMMA * weight(t.right.right))
+		t.right = rotateRight(t.right);
+	    return rotateLeft(t);
+	}
+	if (DELTA * wr < wl) {
+	    if (weight(t.left.right) >= GAMMA * weight(t.left.left))
+		t.left = rotateLeft(t.left);
+	    return rotateRight(t);
+	}
+	return t;
+    }
+
+    private BTNode<TYPE> insert(BTNode<TYPE> t, TYPE o) {
+	if (t == null) return newNode(o);
+	int x = o.compareTo(t.element);
+	if (x == 0) {
+	    ((Node) t).count++;
+	    update(t);
+	    return t;
+	}
+	if (x < 0) t.left = insert(t.left, o);
+	else t.right = insert(t.right, o);
+	return balance(t);
+    }
+
+    private static <T extends Comparable> BTNode<T> delete(BTNode<T> t, T o, BTNode<T> found[]) {
+	if (t == null) return null;
+	int x = o.compareTo(t.element);
+	if (x == 0) {
+	    found[0] = t;
+	    if (((Node) t).count > 1) {
+		((Node) t).count--;
+		update(t);
+		return t;
+	    }
+	    return join2(t.left, t.right);
+	}
+	if (x < 0) t.left = delete(t.left, o, found);
+	else t.right = delete(t.right, o, found);
+	return balance(t);
+    }
+
+    /*
+      Link l, the single node k and r, keys in that order.  Descend
+      the spine of the heavier tree to a subtree that balances with
+      the lighter one, hang both there under k and rebalance upwards.
+    */
+    private static <T extends Comparable> BTNode<T> join(BTNode<T> l, BTNode<T> k, BTNode<T> r) {
+	if (DELTA * weight(l) < weight(r)) {
+	    r.left = join(l, k, r.left);
+	    return balance(r);
+	}
+	if (DELTA * weight(r) < weight(l)) {
+	    l.right = join(l.right, k, r);
+	    return balance(l);
+	}
+	k.left = l;
+	k.right = r;
+	update(k);
+	return k;
+    }
+
+    /* link l and r, keys in that order, with the largest of l between */
+    private static <T extends Comparable> BTNode<T> join2(BTNode<T> l, BTNode<T> r) {
+	if (l == null) return r;
+	BTNode<T> max[] = new BTNode[1];
+	l = removeMax(l, max);
+	return join(l, max[0], r);
+    }
+
+    private static <T extends Comparable> BTNode<T> removeMax(BTNode<T> t, BTNode<T> max[]) {
+	if (t.right == null) {
+	    max[0] = t;
+	    return t.left;
+	}
+	t.right = removeMax(t.right, max);
+	return balance(t);
+    }
+
+    /* a tree split at a key: smaller, the equal node or null, greater */
+    private static class Split<T extends Comparable> {
+	BTNode<T> less, mid, greater;
+    }
+
+    private static <T extends Comparable> Split<T> split(BTNode<T> t, T key) {
+	if (t == null) return new Split<T>();
+	int x = key.compareTo(t.element);
+	if (x == 0) {
+	    Split<T> s = new Split<T>();
+	    s.less = t.left;
+	    s.mid = t;
+	    s.greater = t.right;
+	    t.left = t.right = null;
+	    update(t);
+	    return s;
+	}
+	BTNode<T> l = t.left, r = t.right;
+	t.left = t.right = null;
+	if (x < 0) {
+	    Split<T> s = split(l, key);
+	    s.greater = join(s.greater, t, r);
+	    return s;
+	}
+	Split<T> s = split(r, key);
+	s.less = join(l, t, s.less);
+	return s;
+    }
+
+    private static final int UNION = 0, INTERSECTION = 1, DIFFERENCE = 2;
+
+    private BTNode<TYPE> run(int op, BTNode<TYPE> a, BTNode<TYPE> b) {
+	if (size(a) + size(b) < cutoff) return setOp(op, a, b, Integer.MAX_VALUE);
+	return ForkJoinPool.commonPool().invoke(new SetOp<TYPE>(op, a, b, cutoff));
+    }
+
+    /*
+      One set operation as a fork/join task.  Above the cutoff the
+      left halves are forked while this thread does the right ones.
+    */
+    @SuppressWarnings("serial")
+    private static class SetOp<T extends Comparable> extends RecursiveTask<BTNode<T>> {
+	final int op, cutoff;
+	final BTNode<T> a, b;
+
+	SetOp(int op, BTNode<T> a, BTNode<T> b, int cutoff) {
+	    this.op = op;
+	    this.a = a;
+	    this.b = b;
+	    this.cutoff = cutoff;
+	}
+
+	protected BTNode<T> compute() {
+	    return setOp(op, a, b, cutoff);
+	}
+    }
+
+    /*
+      a op b.  Split b at the root of a (for difference, a at the
+      root of b), recurse on the two sides and join the results,
+      keeping the middle node, with its count worked out from both
+      trees, if op says so.  Nodes of a are kept over equal ones of b.
+    */
+    private static <T extends Comparable> BTNode<T> setOp(int op, BTNode<T> a, BTNode<T> b,
+							 int cutoff) {
+	if (a == null) return op == UNION ? b : null;
+	if (b == null) return op == INTERSECTION ? null : a;
+	BTNode<T> pivot, left, right;
+	Split<T> s;
+	if (op == DIFFERENCE) {
+	    pivot = b;
+	    left = b.left;
+	    right = b.right;
+	    s = split(a, b.element);
+	}
+	else {
+	    pivot = a;
+	    left = a.left;
+	    right = a.right;
+	    s = split(b, a.element);
+	}
+	pivot.left = pivot.right = null;
+
+	BTNode<T> l, r;
+	if (size(left) + size(right) + size(s.less) + size(s.greater) >= cutoff) {
+	    SetOp<T> task = op == DIFFERENCE ? new SetOp<T>(op, s.less, left, cutoff)
+		: new SetOp<T>(op, left, s.less, cutoff);
+	    task.fork();
+	    r = op == DIFFERENCE ? setOp(op, s.greater, right, cutoff)
+		: setOp(op, right, s.greater, cutoff);
+	    l = task.join();
+	}
+	else if (op == DIFFERENCE) {
+	    l = setOp(op, s.less, left, cutoff);
+	    r = setOp(op, s.greater, right, cutoff);
+	}
+	else {
+	    l = setOp(op, left, s.less, cutoff);
+	    r = setOp(op, right, s.greater, cutoff);
+	}
+
+	Node<T> p = (Node<T>) pivot;
+	if (op == UNION) {
+	    if (s.mid != null) p.count += ((Node) s.mid).count;
+	    return join(l, pivot, r);
+	}
+	if (op == INTERSECTION) {
+	    if (s.mid == null) return join2(l, r);
+	    p.count = Math.min(p.count, ((Node) s.mid).count);
+	    return join(l, pivot, r);
+	}
+	// for difference the pivot is b's and goes; an equal of a keeps what is left
+	if (s.mid == null || ((Node) s.mid).count <= p.count) return join2(l, r);
+	((Node) s.mid).count -= p.count;
+	return join(l, s.mid, r);
+    }
+
+    /* check order, sizes, counts and balance of t; returns its size */
+    private static <T extends Comparable> int check(BTNode<T> t, T lo, T hi) {
+	if (t == null) return 0;
+	if ((lo != null && t.element.compareTo(lo) <= 0)
+	    || (hi != null && t.element.compareTo(hi) >= 0))
+	    throw new IllegalStateException("out of order at " + t.element);
+	int nl = check(t.left, lo, t.element), nr = check(t.right, t.element, hi);
+	if (1 + nl + nr != size(t)) throw new IllegalStateException("bad size at " + t.element);
+	if (((Node) t).count < 1
+	    || ((Node) t).count + total(t.left) + total(t.right) != total(t))
+	    throw new IllegalStateException("bad count at " + t.element);
+	if (DELTA * (nl + 1) < nr + 1 || DELTA * (nr + 1) < nl + 1)
+	    throw new IllegalStateException("unbalanced at " + t.element);
+	return 1 + nl + nr;
+    }
+
+    /* does t hold the elements of bag, which maps each to its count? */
+    private static boolean same(BalancedBST<Integer> t, TreeMap<Integer, Integer> bag) {
+	check(t.root, null, null);
+	int n = 0;
+	for (int c : bag.values()) n += c;
+	if (t.size() != n || size(t.root) != bag.size()) return false;
+	for (Map.Entry<Integer, Integer> e : bag.entrySet())
+	    if (t.count(e.getKey()) != e.getValue()) return false;
+	return true;
+    }
+
+    private static BalancedBST<Integer> of(int keys[], int cutoff) {
+	BalancedBST<Integer> t = new BalancedBST<Integer>(cutoff);
+	for (int k : keys) t.addElement(k);
+	return t;
+    }
+
+    private static TreeMap<Integer, Integer> bagOf(int keys[]) {
+	TreeMap<Integer, Integer> bag = new TreeMap<Integer, Integer>();
+	for (int k : keys) bag.merge(k, 1, Integer::sum);
+	return bag;
+    }
+
+    /*
+      Check adds, removes, split, join and the set operations against
+      a TreeMap of counts, sequentially and in parallel, then time
+      union against adding one tree's elements to the other.
+    */
+    public static void main(String[] args) throws IOException {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+	int cutoff = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CUTOFF;
+	Workload work = new Workload(42);
+
+	// random adds and removes
+	BalancedBST<Integer> test = new BalancedBST<Integer>();
+	TreeMap<Integer, Integer> set = new TreeMap<Integer, Integer>();
+	int ops[] = work.uniform(200_000, 3), ks[] = work.uniform(200_000, 5000);
+	for (int i = 0; i < ops.length; i++) {
+	    Integer k = ks[i];
+	    boolean ok;
+	    if (ops[i] < 2) {
+		test.addElement(k);
+		set.merge(k, 1, Integer::sum);
+		ok = true;
+	    }
+	    else {
+		ok = (test.removeElement(k) != null) == set.containsKey(k);
+		set.computeIfPresent(k, (x, c) -> c == 1 ? null : c - 1);
+	    }
+	    if (!ok) {
+		System.out.println("Failed balanced tree test at op " + i);
+		System.exit(-1);
+	    }
+	}
+	if (!same(test, set)) {
+	    System.out.println("Failed balanced tree test");
+	    System.exit(-1);
+	}
+
+	// a snapshot loads back with its counts
+	Path file = Files.createTempFile("balanced", ".snap");
+	file.toFile().deleteOnExit();
+	BalancedBST<Integer> loaded = new BalancedBST<Integer>();
+	test.save(file, TreeSnapshot.INTEGER, TreeSnapshot.Layout.SORTED);
+	loaded.load(file);
+	if (!same(loaded, set)) {
+	    System.out.println("Failed balanced snapshot test");
+	    System.exit(-1);
+	}
+
+	// split and join back
+	Parts<Integer> p = test.split(2500);
+	int had = set.getOrDefault(2500, 0);
+	if ((p.element != null) != (had > 0) || p.count != had
+	    || !same(p.less, new TreeMap<Integer, Integer>(set.headMap(2500)))
+	    || !same(p.greater, new TreeMap<Integer, Integer>(set.tailMap(2500, false)))) {
+	    System.out.println("Failed split test");
+	    System.exit(-1);
+	}
+	set.put(2500, 1);
+	if (!same(join(p.less, 2500, p.greater), set)) {
+	    System.out.println("Failed join test");
+	    System.exit(-1);
+	}
+	// joins of very different sizes
+	BalancedBST<Integer> small = of(new int[] {1, 2}, cutoff);
+	BalancedBST<Integer> big = of(work.uniform(100_000, 1 << 20), cutoff);
+	TreeSet<Integer> bigSet = new TreeSet<Integer>();
+	for (int k = 1 << 21; k < (1 << 21) + 1000; k++) bigSet.add(k);
+	BalancedBST<Integer> right = new BalancedBST<Integer>();
+	for (int k : bigSet) right.addElement(k);
+	if (!same(join(small, 3, new BalancedBST<Integer>()), bagOf(new int[] {1, 2, 3}))) {
+	    System.out.println("Failed small join test");
+	    System.exit(-1);
+	}
+	for (int c : new int[] {1, cutoff}) {
+	    // sizes from tiny to large, overlapping or not, both orders
+	    for (int m : new int[] {0, 1, 100, 10_000, 100_000}) {
+		int xs[] = work.uniform(m, 200_000), ys[] = work.uniform(50_000, 200_000);
+		for (int swap = 0; swap < 2; swap++) {
+		    int as[] = swap == 0 ? xs : ys, bs[] = swap == 0 ? ys : xs;
+		    for (int op = UNION; op <= DIFFERENCE; op++) {
+			BalancedBST<Integer> a = of(as, c), b = of(bs, c);
+			TreeMap<Integer, Integer> sa = bagOf(as), sb = bagOf(bs);
+			if (op == UNION) {
+			    a.union(b);
+			    sb.forEach((k, num) -> sa.merge(k, num, Integer::sum));
+			}
+			else if (op == INTERSECTION) {
+			    a.intersection(b);
+			    sa.keySet().retainAll(sb.keySet());
+			    sa.replaceAll((k, num) -> Math.min(num, sb.get(k)));
+			}
+			else {
+			    a.difference(b);
+			    sb.forEach((k, num) -> sa.computeIfPresent(k, (x, d) -> d > num ? d - num : null));
+			}
+			if (!same(a, sa) || b.size() != 0) {
+			    System.out.println("Failed set operation test " + op + " cutoff " + c);
+			    System.exit(-1);
+			}
+		    }
+		}
+	    }
+	}
+	int before = big.size();
+	big.union(right);
+	check(big.root, null, null);
+	if (big.size() != before + bigSet.size()) {
+	    System.out.println("Failed disjoint union test");
+	    System.exit(-1);
+	}
+
+	// union of two trees of n random keys: by adds, sequential, parallel
+	int xs[] = work.uniform(n, Integer.MAX_VALUE), ys[] = work.uniform(n, Integer.MAX_VALUE);
+	System.out.printf("union of two trees of %d keys, %d threads%n", n,
+			  ForkJoinPool.commonPool().getParallelism());
+	System.out.printf("%-6s %10s %12s %10s%n", "round", "adds ms", "sequential", "parallel");
+	for (int round = 0; round < 3; round++) {
+	    BalancedBST<Integer> a = of(xs, cutoff), b;
+	    long t0 = System.nanoTime();
+	    for (int y : ys) a.addElement(y);
+	    long t1 = System.nanoTime();
+	    a = of(xs, Integer.MAX_VALUE);
+	    b = of(ys, Integer.MAX_VALUE);
+	    long t2 = System.nanoTime();
+	    a.union(b);
+	    long t3 = System.nanoTime();
+	    int seq = a.size();
+	    a = of(xs, cutoff);
+	    b = of(ys, cutoff);
+	    long t4 = System.nanoTime();
+	    a.union(b);
+	    long t5 = System.nanoTime();
+	    if (a.size() != seq) {
+		System.out.println("Failed parallel union test");
+		System.exit(-1);
+	    }
+	    System.out.printf("%-6d %10.1f %12.1f %10.1f%n", round, (t1 - t0) / 1e6,
+			      (t3 - t2) / 1e6, (t5 - t4) / 1e6);
+	}
+    }
+}
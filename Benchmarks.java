@@ -0,0 +1,681 @@
+/*
+  Benchmark suite for the data structures and algorithms in this
+  directory.  Needs nothing but the JDK, so it runs offline.
+
+  Every benchmark is run for each size in a fresh JVM (a fork), with
+  warmup iterations that are thrown away and measured iterations
+  that are kept.  Inputs come from a fixed seed, so runs are
+  repeatable.  For the measured iterations the suite also records
+  bytes allocated per operation and GC count and time, like JMH's
+  gc profiler.  Results are printed as a table and written as JSON.
+
+  USAGE: java Benchmarks [options] [regex]
+    -f forks       JVMs per benchmark and size, 0 runs in this JVM (1)
+    -wi n          warmup iterations (5)
+    -i n           measured iterations (10)
+    -p n,n,...     sizes (1000,10000)
+    -seed s        random seed (42)
+    -o file        JSON output file (benchmarks.json)
+    -l             list benchmarks and exit
+    regex          only run benchmarks whose name matches
+*/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+public class Benchmarks {
+
+    /*
+      One benchmark.  setup runs once per fork, prepare before every
+      iteration; neither is timed.  run is timed and performs ops()
+      operations; its result is summed so the JIT cannot drop it.
+    */
+    private static abstract class Bench {
+	int size;
+	Random rand;
+	Workload work;
+
+	abstract void setup();
+	void prepare() { }
+	abstract long run();
+	long ops() { return size; }
+    }
+
+    private static final Map<String, Supplier<Bench>> benches =
+	new LinkedHashMap<String, Supplier<Bench>>();
+
+    static {
+	// BinarySearchTree
+	benches.put("bst.add.random", () -> new TreeBench(false) {
+	    void prepare() { tree = new BinarySearchTree<Integer>(); }
+	    long run() { for (Integer k : keys) tree.addElement(k); return 0; }
+	});
+	benches.put("bst.add.sorted", () -> new TreeBench(true) {
+	    void prepare() { tree = new BinarySearchTree<Integer>(); }
+	    long run() { for (Integer k : keys) tree.addElement(k); return 0; }
+	});
+	benches.put("bst.get.random", () -> new TreeBench(false) {
+	    long run() { return lookups(); }
+	});
+	benches.put("bst.get.sorted", () -> new TreeBench(true) {
+	    long run() { return lookups(); }
+	});
+	benches.put("bst.get.zipf", () -> new TreeBench(false) {
+	    void setup() { super.setup(); zipfProbes(); }
+	    long run() { return lookups(); }
+	});
+	benches.put("bst.remove.random", () -> new TreeBench(false) {
+	    void prepare() { fill(); }
+	    long run() {
+		long sum = 0;
+		for (Integer k : keys) if (tree.removeElement(k) != null) sum++;
+		return sum;
+	    }
+	});
+	benches.put("bst.remove.sorted", () -> new TreeBench(true) {
+	    void prepare() { fill(); }
+	    long run() {
+		long sum = 0;
+		for (Integer k : keys) if (tree.removeElement(k) != null) sum++;
+		return sum;
+	    }
+	});
+
+	// SplayTree
+	benches.put("splay.add.sorted", () -> new TreeBench(true) {
+	    OrderedIndex<Integer> newTree() { return new SplayTree<Integer>(); }
+	    void prepare() { tree = newTree(); }
+	    long run() { for (Integer k : keys) tree.addElement(k); return 0; }
+	});
+	benches.put("splay.get.random", () -> new TreeBench(false) {
+	    OrderedIndex<Integer> newTree() { return new SplayTree<Integer>(); }
+	    long run() { return lookups(); }
+	});
+	benches.put("splay.get.zipf", () -> new TreeBench(false) {
+	    OrderedIndex<Integer> newTree() { return new SplayTree<Integer>(); }
+	    void setup() { super.setup(); zipfProbes(); }
+	    long run() { return lookups(); }
+	});
+
+	// duplicate-heavy keys, about 100 copies of each: plain vs multiset
+	benches.put("bst.add.dups", () -> new TreeBench(false) {
+	    int[] keyInts() { return work.fewUnique(size, Math.max(1, size / 100)); }
+	    void prepare() { tree = newTree(); }
+	    long run() { for (Integer k : keys) tree.addElement(k); return 0; }
+	});
+	benches.put("mbst.add.dups", () -> new TreeBench(false) {
+	    int[] keyInts() { return work.fewUnique(size, Math.max(1, size / 100)); }
+	    OrderedIndex<Integer> newTree() { return new BinarySearchTree<Integer>(true); }
+	    void prepare() { tree = newTree(); }
+	    long run() { for (Integer k : keys) tree.addElement(k); return 0; }
+	});
+	benches.put("bst.get.dups", () -> new TreeBench(false) {
+	    int[] keyInts() { return work.fewUnique(size, Math.max(1, size / 100)); }
+	    long run() { return lookups(); }
+	});
+	benches.put("mbst.get.dups", () -> new TreeBench(false) {
+	    int[] keyInts() { return work.fewUnique(size, Math.max(1, size / 100)); }
+	    OrderedIndex<Integer> newTree() { return new BinarySearchTree<Integer>(true); }
+	    long run() { return lookups(); }
+	});
+
+	// BPlusTree
+	benches.put("bplus.add.random", () -> new TreeBench(false) {
+	    OrderedIndex<Integer> newTree() { return new BPlusTree(); }
+	    void prepare() { tree = newTree(); }
+	    long run() { for (Integer k : keys) tree.addElement(k); return 0; }
+	});
+	benches.put("bplus.add.sorted", () -> new TreeBench(true) {
+	    OrderedIndex<Integer> newTree() { return new BPlusTree(); }
+	    void prepare() { tree = newTree(); }
+	    long run() { for (Integer k : keys) tree.addElement(k); return 0; }
+	});
+	benches.put("bplus.get.random", () -> new TreeBench(false) {
+	    OrderedIndex<Integer> newTree() { return new BPlusTree(); }
+	    long run() { return lookups(); }
+	});
+	benches.put("bplus.get.zipf", () -> new TreeBench(false) {
+	    OrderedIndex<Integer> newTree() { return new BPlusTree(); }
+	    void setup() { super.setup(); zipfProbes(); }
+	    long run() { return lookups(); }
+	});
+	benches.put("bplus.remove.random", () -> new TreeBench(false) {
+	    OrderedIndex<Integer> newTree() { return new BPlusTree(); }
+	    void prepare() { fill(); }
+	    long run() {
+		long sum = 0;
+		for (Integer k : keys) if (tree.removeElement(k) != null) sum++;
+		return sum;
+	    }
+	});
+	benches.put("bplus.scan", () -> new TreeBench(false) {
+	    OrderedIndex<Integer> newTree() { return new BPlusTree(); }
+	    long run() {
+		long sum[] = new long[1];
+		((BPlusTree) tree).forEachInRange(Integer.MIN_VALUE, Integer.MAX_VALUE,
+						  k -> sum[0] += k);
+		return sum[0];
+	    }
+	});
+
+	// BalancedBST: sorted adds stay balanced; union of two trees of
+	// size keys by join against adding one tree's keys to the other
+	benches.put("balanced.add.sorted", () -> new TreeBench(true) {
+	    OrderedIndex<Integer> newTree() { return new BalancedBST<Integer>(); }
+	    void prepare() { tree = newTree(); }
+	    long run() { for (Integer k : keys) tree.addElement(k); return 0; }
+	});
+	benches.put("balanced.get.random", () -> new TreeBench(false) {
+	    OrderedIndex<Integer> newTree() { return new BalancedBST<Integer>(); }
+	    long run() { return lookups(); }
+	});
+	benches.put("balanced.union.adds", () -> new TreeBench(false) {
+	    OrderedIndex<Integer> newTree() { return new BalancedBST<Integer>(); }
+	    void prepare() { fill(); }
+	    long run() { for (Integer k : probes) tree.addElement(k); return tree.size(); }
+	});
+	benches.put("balanced.union.join", () -> new TreeBench(false) {
+	    BalancedBST<Integer> other;
+	    OrderedIndex<Integer> newTree() { return new BalancedBST<Integer>(); }
+	    void prepare() {
+		fill();
+		other = new BalancedBST<Integer>();
+		for (Integer k : probes) other.addElement(k);
+	    }
+	    long run() { ((BalancedBST<Integer>) tree).union(other); return tree.size(); }
+	});
+
+	// SelfOrganizingST
+	benches.put("sost.put.uniform", () -> new STBench(false) {
+	    void prepare() { st = new SelfOrganizingST<Integer, Integer>(); }
+	    long run() { for (Integer k : keys) st.put(k, k); return st.size(); }
+	});
+	benches.put("sost.get.uniform", () -> new STBench(false) {
+	    long run() { return lookups(); }
+	});
+	benches.put("sost.get.zipf", () -> new STBench(true) {
+	    long run() { return lookups(); }
+	});
+	// churn: delete a key and put another, table size stays put
+	benches.put("sost.churn", () -> new STBench(false) {
+	    long run() { return churn(st::delete, st::put); }
+	});
+	benches.put("sost.pooled.churn", () -> new STBench(false) {
+	    PooledSelfOrganizingST<Integer, Integer> pooled;
+	    void setup() {
+		super.setup();
+		pooled = new PooledSelfOrganizingST<Integer, Integer>(size);
+		for (Integer k : keys) pooled.put(k, k);
+	    }
+	    long run() { return churn(pooled::delete, pooled::put); }
+	});
+
+	// LRUCache holding a tenth of the keys, loading misses from the table
+	benches.put("lru.get.zipf", () -> new STBench(true) {
+	    LRUCache<Integer, Integer> cache;
+	    void setup() {
+		super.setup();
+		cache = new LRUCache<Integer, Integer>(Math.max(1, size / 10));
+	    }
+	    long run() {
+		long sum = 0;
+		for (Integer p : probes) sum += cache.get(p, st::get);
+		return sum;
+	    }
+	});
+
+	// Sorts
+	for (String m : new String[] {"insert","merge","pmerge","quick","pquick",
+				      "radix","pradix","adaptive","jdk","jdkpar"}) {
+	    benches.put("sorts." + m, () -> new SortBench(m));
+	}
+
+	// Searches
+	benches.put("searches.linear", () -> new SearchBench() {
+	    long run() {
+		long sum = 0;
+		for (int q : queries) if (Searches.search(q, data)) sum++;
+		return sum;
+	    }
+	});
+	benches.put("searches.binary", () -> new SearchBench() {
+	    long run() {
+		long sum = 0;
+		for (int q : queries) if (Searches.binarySearch(q, data)) sum++;
+		return sum;
+	    }
+	});
+	benches.put("searches.interpolation", () -> new SearchBench() {
+	    long run() {
+		long sum = 0;
+		for (int q : queries) if (Searches.interpolationSearch(q, data)) sum++;
+		return sum;
+	    }
+	});
+	benches.put("searches.exponential", () -> new SearchBench() {
+	    long run() {
+		long sum = 0;
+		for (int q : queries) if (Searches.exponentialSearch(q, data)) sum++;
+		return sum;
+	    }
+	});
+	benches.put("searches.adaptive", () -> new SearchBench() {
+	    long run() {
+		long sum = 0;
+		for (int q : queries) if (Searches.adaptiveSearch(q, data)) sum++;
+		return sum;
+	    }
+	});
+	benches.put("searches.branchless", () -> new SearchBench() {
+	    long run() {
+		long sum = 0;
+		for (int q : queries) sum += BranchlessSearch.lowerBound(data, q);
+		return sum;
+	    }
+	});
+	benches.put("searches.learned", () -> new SearchBench() {
+	    LearnedIndex index;
+	    void setup() {
+		super.setup();
+		index = new LearnedIndex(data);
+	    }
+	    long run() {
+		long sum = 0;
+		for (int q : queries) if (Searches.learnedSearch(q, index)) sum++;
+		return sum;
+	    }
+	});
+	benches.put("searches.searchAll", () -> new SearchBench() {
+	    long run() {
+		long sum = 0;
+		for (boolean b : Searches.searchAll(queries, data)) if (b) sum++;
+		return sum;
+	    }
+	});
+
+	// SpellCheck
+	benches.put("spellcheck.indexOf", () -> new Bench() {
+	    SpellCheck checker;
+	    String words[];
+	    void setup() {
+		String dict[] = new String[size];
+		for (int i = 0; i < size; i++) dict[i] = randomWord(rand);
+		Arrays.sort(dict);
+		try {
+		    File f = File.createTempFile("dict", ".txt");
+		    f.deleteOnExit();
+		    Files.write(f.toPath(), Arrays.asList(dict));
+		    checker = new SpellCheck(f.getPath());
+		} catch (IOException ex) {
+		    throw new IllegalStateException(ex);
+		}
+		words = new String[size];
+		for (int i = 0; i < size; i++)
+		    words[i] = rand.nextBoolean() ? dict[rand.nextInt(size)] : randomWord(rand);
+	    }
+	    long run() {
+		long sum = 0;
+		for (String w : words) sum += checker.indexOf(w);
+		return sum;
+	    }
+	});
+    }
+
+    /* tree of size random or increasing keys; lookups hit and miss,
+       or with zipfProbes hit with a Zipfian distribution */
+    private static abstract class TreeBench extends Bench {
+	final boolean sorted;
+	Integer keys[];
+	Integer probes[];
+	OrderedIndex<Integer> tree;
+
+	TreeBench(boolean sorted) { this.sorted = sorted; }
+
+	void setup() {
+	    int k[] = keyInts();
+	    keys = new Integer[size];
+	    for (int i = 0; i < size; i++) keys[i] = 2 * k[i];
+	    probes = new Integer[size];
+	    for (int i = 0; i < size; i++)
+		probes[i] = (i % 2 == 0) ? keys[rand.nextInt(size)] : 2 * rand.nextInt(size) + 1;
+	    fill();
+	}
+
+	int[] keyInts() {
+	    return sorted ? work.sorted(size) : work.uniform(size, Integer.MAX_VALUE / 2);
+	}
+
+	OrderedIndex<Integer> newTree() {
+	    return new BinarySearchTree<Integer>();
+	}
+
+	void fill() {
+	    tree = newTree();
+	    for (Integer k : keys) tree.addElement(k);
+	}
+
+	/* Zipfian probes; hot keys are picked at random, not by insertion order */
+	void zipfProbes() {
+	    int hot[] = work.uniform(size, size);
+	    int ranks[] = work.zipf(size, size, 1.0);
+	    for (int i = 0; i < size; i++) probes[i] = keys[hot[ranks[i]]];
+	}
+
+	long lookups() {
+	    long sum = 0;
+	    for (Integer p : probes) if (tree.getElement(p) != null) sum++;
+	    return sum;
+	}
+    }
+
+    /* table of size keys; lookups uniform or Zipfian over the keys */
+    private static abstract class STBench extends Bench {
+	final boolean zipf;
+	Integer keys[];
+	Integer probes[];
+	SelfOrganizingST<Integer, Integer> st;
+
+	STBench(boolean zipf) { this.zipf = zipf; }
+
+	void setup() {
+	    keys = new Integer[size];
+	    for (int i = 0; i < size; i++) keys[i] = i;
+	    probes = new Integer[size];
+	    int ranks[] = zipf ? work.zipf(size, size, 1.0) : work.uniform(size, size);
+	    for (int i = 0; i < size; i++) probes[i] = keys[ranks[i]];
+	    st = new SelfOrganizingST<Integer, Integer>();
+	    for (Integer k : keys) st.put(k, k);
+	}
+
+	long lookups() {
+	    long sum = 0;
+	    for (Integer p : probes) sum += st.get(p);
+	    return sum;
+	}
+
+	/*
+	  Swap probe p for p + size or back, so keys churn through the
+	  table without it growing; keys above the Integer cache are
+	  boxed once, in setup.
+	*/
+	Integer fresh[];
+	boolean high[];
+
+	long churn(Consumer<Integer> delete, BiConsumer<Integer, Integer> put) {
+	    if (fresh == null) {
+		fresh = new Integer[size];
+		for (int i = 0; i < size; i++) fresh[i] = i + size;
+		high = new boolean[size];
+	    }
+	    for (Integer p : probes) {
+		int j = p;
+		Integer out = high[j] ? fresh[j] : keys[j], in = high[j] ? keys[j] : fresh[j];
+		high[j] = !high[j];
+		delete.accept(out);
+		put.accept(in, in);
+	    }
+	    return size;
+	}
+    }
+
+    /* sort a fresh copy of a random array each iteration */
+    private static class SortBench extends Bench {
+	final String method;
+	int data[], a[];
+
+	SortBench(String method) { this.method = method; }
+
+	void setup() { data = work.uniform(size, Integer.MAX_VALUE); }
+	void prepare() { a = data.clone(); }
+	long run() {
+	    switch (method) {
+	    case "insert": Sorts.insertionSort(a); break;
+	    case "merge": Sorts.mergeSort(a); break;
+	    case "pmerge": Sorts.parallelMergeSort(a); break;
+	    case "quick": Sorts.quickSort(a); break;
+	    case "pquick": Sorts.parallelQuickSort(a); break;
+	    case "radix": Sorts.radixSort(a); break;
+	    case "pradix": Sorts.parallelRadixSort(a); break;
+	    case "adaptive": Sorts.adaptiveSort(a); break;
+	    case "jdk": Arrays.sort(a); break;
+	    case "jdkpar": Arrays.parallelSort(a); break;
+	    default: throw new IllegalArgumentException(method);
+	    }
+	    return a[size / 2];
+	}
+    }
+
+    /* sorted array of size ints, half of the queries present */
+    private static abstract class SearchBench extends Bench {
+	int data[], queries[];
+
+	void setup() {
+	    data = work.uniform(size, Integer.MAX_VALUE);
+	    Arrays.sort(data);
+	    queries = new int[size];
+	    for (int i = 0; i < size; i++)
+		queries[i] = (i % 2 == 0) ? data[rand.nextInt(size)] : rand.nextInt();
+	}
+    }
+
+    private static String randomWord(Random rand) {
+	char c[] = new char[3 + rand.nextInt(8)];
+	for (int i = 0; i < c.length; i++) c[i] = (char) ('a' + rand.nextInt(26));
+	return new String(c);
+    }
+
+    /* Result of one benchmark at one size, over all forks. */
+    private static class Result {
+	final String name;
+	final int size;
+	final List<Double> samples = new ArrayList<Double>(); // ns/op
+	double allocPerOp;   // bytes
+	long gcCount;
+	long gcMillis;
+	int forks;
+
+	Result(String name, int size) { this.name = name; this.size = size; }
+
+	double mean() {
+	    double s = 0;
+	    for (double x : samples) s += x;
+	    return s / samples.size();
+	}
+
+	/* half-width of a 99.9% confidence interval (normal approximation) */
+	double error() {
+	    if (samples.size() < 2) return Double.NaN;
+	    double m = mean(), ss = 0;
+	    for (double x : samples) ss += (x - m) * (x - m);
+	    return 3.291 * Math.sqrt(ss / (samples.size() - 1) / samples.size());
+	}
+
+	/* the fields that a fork sends to its parent */
+	String toLine() {
+	    StringBuilder b = new StringBuilder();
+	    b.append(allocPerOp).append(' ').append(gcCount).append(' ').append(gcMillis);
+	    for (double x : samples) b.append(' ').append(x);
+	    return b.toString();
+	}
+
+	void addLine(String line) {
+	    String f[] = line.trim().split(" ");
+	    allocPerOp = (allocPerOp * forks + Double.parseDouble(f[0])) / (forks + 1);
+	    gcCount += Long.parseLong(f[1]);
+	    gcMillis += Long.parseLong(f[2]);
+	    for (int i = 3; i < f.length; i++) samples.add(Double.parseDouble(f[i]));
+	    forks++;
+	}
+
+	String toJson() {
+	    StringBuilder b = new StringBuilder();
+	    b.append("{\"benchmark\":\"").append(name).append('"')
+		.append(",\"params\":{\"size\":").append(size).append('}')
+		.append(",\"mode\":\"avgt\",\"forks\":").append(forks)
+		.append(",\"primaryMetric\":{\"score\":").append(mean())
+		.append(",\"scoreError\":").append(Double.isNaN(error()) ? "null" : String.valueOf(error()))
+		.append(",\"scoreUnit\":\"ns/op\",\"rawData\":[");
+	    for (int i = 0; i < samples.size(); i++)
+		b.append(i == 0 ? "" : ",").append(samples.get(i));
+	    b.append("]},\"secondaryMetrics\":{")
+		.append("\"gc.alloc.rate.norm\":").append(allocPerOp)
+		.append(",\"gc.count\":").append(gcCount)
+		.append(",\"gc.time\":").append(gcMillis).append("}}");
+	    return b.toString();
+	}
+    }
+
+    /* run one benchmark in this JVM and return its measurements */
+    private static Result runHere(String name, int size, int warmup, int iters, long seed) {
+	Bench b = benches.get(name).get();
+	b.size = size;
+	b.rand = new Random(seed);
+	b.work = new Workload(seed);
+	b.setup();
+	long sink = 0;
+	for (int i = 0; i < warmup; i++) {
+	    b.prepare();
+	    sink += b.run();
+	}
+
+	Result r = new Result(name, size);
+	long gc0 = gcCount(), gcTime0 = gcMillis(), alloc = 0;
+	for (int i = 0; i < iters; i++) {
+	    b.prepare();
+	    long a0 = allocatedBytes();
+	    long t0 = System.nanoTime();
+	    sink += b.run();
+	    long t1 = System.nanoTime();
+	    alloc += allocatedBytes() - a0;
+	    r.samples.add((t1 - t0) / (double) b.ops());
+	}
+	r.gcCount = gcCount() - gc0;
+	r.gcMillis = gcMillis() - gcTime0;
+	r.allocPerOp = alloc / (double) (iters * b.ops());
+	if (sink == 42) System.err.print(""); // keep sink alive
+	return r;
+    }
+
+    /* run one benchmark in forks child JVMs and combine their results */
+    private static Result runForked(String name, int size, int forks, int warmup,
+				    int iters, long seed) throws IOException {
+	Result r = new Result(name, size);
+	String java = System.getProperty("java.home") + File.separator + "bin"
+	    + File.separator + "java";
+	for (int f = 0; f < forks; f++) {
+	    List<String> cmd = new ArrayList<String>();
+	    cmd.add(java);
+	    cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+	    cmd.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+				     "Benchmarks", "-child", name, "" + size,
+				     "" + warmup, "" + iters, "" + seed));
+	    Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+	    String last = null, line;
+	    try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+		while ((line = in.readLine()) != null) last = line;
+	    }
+	    try {
+		if (p.waitFor() != 0 || last == null)
+		    throw new IOException("Fork of " + name + " failed: " + last);
+	    } catch (InterruptedException ex) {
+		Thread.currentThread().interrupt();
+		throw new IOException("Interrupted", ex);
+	    }
+	    r.addLine(last);
+	}
+	return r;
+    }
+
+    private static long gcCount() {
+	long n = 0;
+	for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+	    n += Math.max(0, gc.getCollectionCount());
+	return n;
+    }
+
+    private static long gcMillis() {
+	long n = 0;
+	for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+	    n += Math.max(0, gc.getCollectionTime());
+	return n;
+    }
+
+    /* bytes allocated so far by this thread, 0 if the JVM can't tell */
+    private static long allocatedBytes() {
+	java.lang.management.ThreadMXBean t = ManagementFactory.getThreadMXBean();
+	if (t instanceof com.sun.management.ThreadMXBean)
+	    return ((com.sun.management.ThreadMXBean) t)
+		.getThreadAllocatedBytes(Thread.currentThread().getId());
+	return 0;
+    }
+
+    public static void main(String[] args) throws IOException {
+	if (args.length > 0 && args[0].equals("-child")) {
+	    Result r = runHere(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+			       Integer.parseInt(args[4]), Long.parseLong(args[5]));
+	    System.out.println(r.toLine());
+	    return;
+	}
+
+	int forks = 1, warmup = 5, iters = 10;
+	long seed = 42;
+	int sizes[] = {1000, 10000};
+	String output = "benchmarks.json";
+	Pattern filter = Pattern.compile(".*");
+	for (int i = 0; i < args.length; i++) {
+	    switch (args[i]) {
+	    case "-f": forks = Integer.parseInt(args[++i]); break;
+	    case "-wi": warmup = Integer.parseInt(args[++i]); break;
+	    case "-i": iters = Integer.parseInt(args[++i]); break;
+	    case "-seed": seed = Long.parseLong(args[++i]); break;
+	    case "-o": output = args[++i]; break;
+	    case "-p":
+		sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+		break;
+	    case "-l":
+		for (String name : benches.keySet()) System.out.println(name);
+		return;
+	    default: filter = Pattern.compile(args[i]);
+	    }
+	}
+
+	List<Result> results = new ArrayList<Result>();
+	System.out.printf("%-24s %10s %14s %12s %14s %6s%n",
+			  "Benchmark", "size", "ns/op", "error", "B/op", "gc");
+	for (String name : benches.keySet()) {
+	    if (!filter.matcher(name).find()) continue;
+	    for (int size : sizes) {
+		Result r = (forks == 0) ? runHere(name, size, warmup, iters, seed)
+		    : runForked(name, size, forks, warmup, iters, seed);
+		results.add(r);
+		System.out.printf(Locale.ROOT, "%-24s %10d %14.2f %12.2f %14.1f %6d%n",
+				  name, size, r.mean(), r.error(), r.allocPerOp, r.gcCount);
+	    }
+	}
+
+	try (PrintWriter out = new PrintWriter(output, "UTF-8")) {
+	    out.println("[");
+	    for (int i = 0; i < results.size(); i++)
+		out.println("  " + results.get(i).toJson() + (i + 1 < results.size() ? "," : ""));
+	    out.println("]");
+	}
+	System.out.println("Results written to " + output);
+    }
+}
@@ -1,3 +1,6 @@
+import java.io.*;
+import java.util.*;
+
 /**
    Implements a BinarySearchTree (BST).  Given a node r, all nodes in
    the left subtree of r are less than r.  All nodes in the right
@@ -5,14 +8,87 @@
 
    Only Objects that implement Comparable can be stored in the tree.
 
+   In multiset mode equal elements share a node that counts them, so
+   a duplicate costs an increment instead of a node, and the height
+   of the tree depends only on the number of distinct elements.
+
    @author: S. Anderson and Kasherri  */
 
 
 
-public class BinarySearchTree<TYPE extends Comparable> {
+public class BinarySearchTree<TYPE extends Comparable> implements OrderedIndex<TYPE> {
     protected BTNode<TYPE> root; // root of the tree
-    
-    public BinarySearchTree() { super(); root = null; }
+    final boolean multiset;      // count equal elements in one node?
+    int duplicates;              // elements beyond one per node
+
+    public BinarySearchTree() { this(false); }
+
+    /**
+       @param multiset if true, equal elements share a counted node.
+    */
+    public BinarySearchTree(boolean multiset) {
+	super();
+	root = null;
+	this.multiset = multiset;
+    }
+
+    /*
+      Node that also keeps the number of nodes in its subtree, so
+      ranks, and with them drawing columns, take O(depth) to find,
+      and in multiset mode the number of elements it stands for.
+      All nodes of the tree are made by newNode.
+    */
+    protected static class Node<TYPE> extends BTNode<TYPE> {
+	int size = 1;
+	int count = 1;
+
+	Node(TYPE o) { super(o, null, null); }
+    }
+
+    protected BTNode<TYPE> newNode(TYPE o) {
+	return new Node<TYPE>(o);
+    }
+
+    /* number of nodes in the subtree rooted at t */
+    protected static int size(BTNode t) {
+	return t == null ? 0 : ((Node) t).size;
+    }
+
+    /** @return number of elements in the tree, duplicates included. */
+    public int size() {
+	return size(root) + duplicates;
+    }
+
+    /** @return true if equal elements share a counted node. */
+    public boolean isMultiset() {
+	return multiset;
+    }
+
+    /** @return number of elements equal to o in the tree. */
+    public int count(TYPE o) {
+	if (o == null) return 0;
+	if (multiset) {
+	    for (BTNode<TYPE> t = root; t != null; ) {
+		int x = o.compareTo(t.element);
+		if (x == 0) return ((Node) t).count;
+		t = (x < 0) ? t.left : t.right;
+	    }
+	    return 0;
+	}
+	// removing a node can move an equal element to its left, so
+	// below an equal node search both sides
+	int n = 0;
+	ArrayDeque<BTNode<TYPE>> stack = new ArrayDeque<BTNode<TYPE>>();
+	if (root != null) stack.push(root);
+	while (!stack.isEmpty()) {
+	    BTNode<TYPE> t = stack.pop();
+	    int x = o.compareTo(t.element);
+	    if (x == 0) n++;
+	    if (x <= 0 && t.left != null) stack.push(t.left);
+	    if (x >= 0 && t.right != null) stack.push(t.right);
+	}
+	return n;
+    }
 
     /**
        Adds an element to the tree.
@@ -20,39 +96,52 @@ public class BinarySearchTree<TYPE extends Comparable> {
        @param o an element that can be compared to others in the tree.
     */
     public void addElement(TYPE o) {
-	if (root == null) root = new BTNode<TYPE>(o,null,null);
+	if (root == null) root = newNode(o);
 	else addElement(root,o);
     }
 
     /* 
-       Helper method for adding element
+       Helper method for adding element.  Walks down in a loop, so
+       degenerate trees (keys added in order) do not overflow the stack.
        @param t root node of tree to which o is added.  Must NOT be null.
        @param o object to be inserted
      */
-        private void addElement(BTNode<TYPE> t,TYPE o) {
-	    int x= o.compareTo(t.element);
-	    
-
-	    if (0<=x) { //added to the right if o is greater than or equal to t
-	    	if (t.right==null) 
-	    		t.right= new BTNode<TYPE>(o,null,null);
-	    	
-	    	else
-	    		addElement(t.right, o);
-
+    private void addElement(BTNode<TYPE> t,TYPE o) {
+	if (multiset && addDuplicate(t, o)) return;
+	while (true) {
+	    ((Node) t).size++; // o ends up below t
+	    if (0 <= o.compareTo(t.element)) { // greater or equal goes right
+		if (t.right == null) {
+		    t.right = newNode(o);
+		    return;
+		}
+		t = t.right;
 	    }
-	    // add to left subtree
-	    if (x<0) { //added to the left if o is less than t
-	    	if (t.left==null) 
-	    		t.left=new BTNode<TYPE>(o,null,null);
-	    		
-	    	
-	    	else
-	    		addElement(t.left,o);
-
+	    else { // less goes left
+		if (t.left == null) {
+		    t.left = newNode(o);
+		    return;
+		}
+		t = t.left;
 	    }
+	}
+    }
 
-	   
+    /*
+      In multiset mode, count o in the node of an equal element if
+      there is one.  Otherwise the tree is left alone.
+    */
+    private boolean addDuplicate(BTNode<TYPE> t, TYPE o) {
+	while (t != null) {
+	    int x = o.compareTo(t.element);
+	    if (x == 0) {
+		((Node) t).count++;
+		duplicates++;
+		return true;
+	    }
+	    t = (x < 0) ? t.left : t.right;
+	}
+	return false;
     }
 
     /**
@@ -159,7 +248,17 @@ public class BinarySearchTree<TYPE extends Comparable> {
 			break;
 	}
 	//p is going to be null or contains the element o
-	
+	if (p == null) return null;
+
+	if (multiset && ((Node) p).count > 1) {
+	    ((Node) p).count--;
+	    duplicates--;
+	    return p.element;
+	}
+
+	// one node fewer below each ancestor of p
+	for (BTNode<TYPE> q = t; q != p; q = o.compareTo(q.element) < 0 ? q.left : q.right)
+	    ((Node) q).size--;
 
 //remove if p is leaf
 	if (p.left==null && p.right==null) {
@@ -267,15 +366,21 @@ public class BinarySearchTree<TYPE extends Comparable> {
       }
       //maxnode.right is always null 
 
+      // maxnode goes, so p and the path down to it lose a node
+      ((Node) p).size--;
+      for (BTNode q = p.left; q != maxnode; q = q.right) ((Node) q).size--;
+
 
 //base case
       if (maxnode.left==null) {
       	p.element=maxnode.element;
+      	((Node) p).count=((Node) maxnode).count;
       	removeLeaf(maxnode, parentoft);
       }
 
       else if(maxnode.left!=null) {
       	p.element=maxnode.element;
+      	((Node) p).count=((Node) maxnode).count;
       	removeOneSubtree(maxnode, parentoft);
    
 }
@@ -286,19 +391,22 @@ public class BinarySearchTree<TYPE extends Comparable> {
 
     /* 
        Returns height of tree.  Returns -1 if tree has no node. 
-       sets heights in all encountered nodes.
+       Counts levels breadth first, so degenerate trees do not
+       overflow the stack.
     */
-   private int height(BTNode t) {
-	if (t == null) return -1;
-	int leftHeight=height(t.left);
-	int rightHeight=height(t.right);
-	
-	if (leftHeight>rightHeight) {
-		return leftHeight+1;	
+   private int height(BTNode<TYPE> t) {
+	int h = -1;
+	ArrayDeque<BTNode<TYPE>> level = new ArrayDeque<BTNode<TYPE>>();
+	if (t != null) level.add(t);
+	while (!level.isEmpty()) {
+	    h++;
+	    for (int n = level.size(); n > 0; n--) {
+		BTNode<TYPE> p = level.remove();
+		if (p.left != null) level.add(p.left);
+		if (p.right != null) level.add(p.right);
+	    }
 	}
-	else
-		return leftHeight+1;
-
+	return h;
     }
 
 
@@ -311,6 +419,28 @@ public class BinarySearchTree<TYPE extends Comparable> {
 
 
 
+    /**
+       Write the tree to a binary snapshot file (see TreeSnapshot).
+       @param layout PREORDER to reload the same shape, SORTED to
+       reload a balanced tree.
+    */
+    public void save(java.nio.file.Path file, TreeSnapshot.KeyCodec<? super TYPE> codec,
+		     TreeSnapshot.Layout layout) throws IOException {
+	TreeSnapshot.save(this, file, codec, layout);
+    }
+
+    /**
+       Replace the contents of the tree with a snapshot written by
+       save, in O(n) and without comparing keys.
+    */
+    public void load(java.nio.file.Path file) throws IOException {
+	TreeSnapshot.load(file, this);
+    }
+
+    /* called by TreeSnapshot after a load has set up the nodes */
+    void snapshotLoaded() { }
+
+
     /******************************************************************/
     /* Graphics and display methods. */
     /******************************************************************/
@@ -319,23 +449,22 @@ public class BinarySearchTree<TYPE extends Comparable> {
     /**
        Return map containing keys.  Map is used
        to generate graphical representation of tree.
+       It has a row per level and a column per node.
     */
     public TYPE[][] getMap() {
-	int maxsize = 50;
 	int maxrow = height(root)+1; // maximum height + 1
-	int maxcol = (int) Math.pow(2.0,maxrow); //max cols in binary tree
-	
-
-	TYPE[][] map = (TYPE[][]) (new Object[20][20]);
-	// fill array with keys from tree nodes.
-	maxcol = drawTree(root,map,0,0,maxrow);
-
-	TYPE[][] newmap = (TYPE[][]) (new Object[maxrow][maxcol]);
-	for (int i = 0; i < newmap.length; i++) {
-	    for (int j = 0; j < newmap[i].length; j++)
-		newmap[i][j] = map[i][j];
+	final TYPE[][] map = (TYPE[][]) (new Comparable[maxrow][size(root)]);
+	try {
+	    levelOrder(Integer.MAX_VALUE, new LevelVisitor<TYPE>() {
+		public void visit(int row, int col, BTNode<TYPE> t, boolean collapsed) {
+		    map[row][col] = t.element;
+		}
+		public void endRow(int row) { }
+	    });
+	} catch (IOException e) {
+	    // the visitor does no I/O
 	}
-	return newmap;
+	return map;
     }
 
 
@@ -343,112 +472,198 @@ public class BinarySearchTree<TYPE extends Comparable> {
        Draw a binary search tree to stdout. (text)
     */
     public void showTree() {
-	// map holds pointers to all objects in the tree
-	// cannot handle more than 400 nodes on a page.
-	//TYPE[][] map = (TYPE[][]) (new Object[20][20]);
-	Object[][] map = new Object[20][20];
-	int maxcol = 0;
-	int maxrow = height(root)+1;
-	// fixed field width for each node and for each blank
-	final String padding = "   "; 
-
-	System.out.println("Tree height is " + (maxrow-1));
-
-	// fill array with keys from tree nodes.
-	maxcol = drawTree(root,map,0,maxcol,maxrow);
-
-	// use keys in map to place 
-	for (int row = 0; row < maxrow; row++) {
-	    for (int col = 0; col < maxcol; col++) {
-		// if no node, print padding
-		if (map[row][col] == null) System.out.print(padding);
-		// if there is a node print it in a field of 
-		//length padding.length
-		else padPrint(map[row][col],padding.length());
-	    }
-	    System.out.println();
+	System.out.println("Tree height is " + height(root));
+	try {
+	    Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+	    writeTree(out, Integer.MAX_VALUE, 3);
+	} catch (IOException e) {
+	    System.out.println("WARNING. Tree could not be completely printed.");
 	}
     }
 
-    /* print padding around strings */
-    private void padPrint(Object o, int padlen) {
-	String s = o.toString();
-	System.out.print(s);
-	int len = s.length();
-	while (len++ < padlen) {
-	    System.out.print(' ');
-	}
+    /**
+       Write the tree to out, a line per level, each node in the
+       column of its in-order rank.  Rows are streamed as they are
+       found, so memory use is that of the widest level shown, not
+       of the whole picture.
+       @param maxDepth nodes below this depth are not shown; a node at
+       this depth with children is written as [n], n the size of its
+       subtree, and takes up a single column.
+    */
+    public void writeTree(Writer out, int maxDepth) throws IOException {
+	writeTree(out, maxDepth, 4);
+    }
+
+    /**
+       As writeTree(out, maxDepth), with cellWidth characters per
+       column.  Longer keys push the rest of their row to the right.
+    */
+    public void writeTree(final Writer out, int maxDepth, final int cellWidth)
+	throws IOException {
+	levelOrder(maxDepth, new LevelVisitor<TYPE>() {
+	    int pos = 0; // characters written on this row
+
+	    public void visit(int row, int col, BTNode<TYPE> t, boolean collapsed)
+		throws IOException {
+		String s = collapsed ? "[" + size(t) + "]" : String.valueOf(t.element);
+		if (!collapsed && ((Node) t).count > 1) s += "x" + ((Node) t).count;
+		int at = col * cellWidth;
+		if (pos > 0) at = Math.max(at, pos + 1);
+		for (; pos < at; pos++) out.write(' ');
+		out.write(s);
+		pos += s.length();
+	    }
 
+	    public void endRow(int row) throws IOException {
+		out.write('\n');
+		pos = 0;
+	    }
+	});
+	out.flush();
     }
 
+    /* Told about each node of a level order walk, left to right. */
+    private interface LevelVisitor<TYPE> {
+	void visit(int row, int col, BTNode<TYPE> t, boolean collapsed) throws IOException;
+	void endRow(int row) throws IOException;
+    }
 
     /*
-      Position tree nodes in a 2D array by first position left subtree,
-      then node, then right subtree.
-      @returns col, the maximum column used.
-     */
-    private int drawTree(BTNode root, Object[][] map,
-				 int row, int col, int maxrow) {
-	// stop if leaf node or if map dimensions exceeded
-	if (root == null) return col;
-	if ((maxrow+1) >= map.length || 
-	    (col+1) >= map[0].length) {
-	    System.out.println("WARNING. Tree could not be completely printed.");
-	    return col; 
+      Walk the tree level by level down to maxDepth, telling v the
+      row and column of each node.  Only the current level and the
+      next are held.  start[i] is the first column of the subtree of
+      the i-th node of a level.
+    */
+    private void levelOrder(int maxDepth, LevelVisitor<TYPE> v) throws IOException {
+	IdentityHashMap<BTNode<TYPE>, Integer> widths =
+	    new IdentityHashMap<BTNode<TYPE>, Integer>();
+	ArrayList<BTNode<TYPE>> level = new ArrayList<BTNode<TYPE>>();
+	int start[] = new int[1];
+	if (root != null) level.add(root);
+	for (int row = 0; !level.isEmpty(); row++) {
+	    ArrayList<BTNode<TYPE>> next = new ArrayList<BTNode<TYPE>>();
+	    int nextStart[] = new int[2 * level.size()];
+	    for (int i = 0; i < level.size(); i++) {
+		BTNode<TYPE> t = level.get(i);
+		if (row == maxDepth && (t.left != null || t.right != null)) {
+		    v.visit(row, start[i], t, true);
+		    continue;
+		}
+		int col = start[i] + width(t.left, row+1, maxDepth, widths);
+		v.visit(row, col, t, false);
+		if (t.left != null) {
+		    nextStart[next.size()] = start[i];
+		    next.add(t.left);
+		}
+		if (t.right != null) {
+		    nextStart[next.size()] = col+1;
+		    next.add(t.right);
+		}
+	    }
+	    v.endRow(row);
+	    level = next;
+	    start = nextStart;
 	}
-	// maximum row (level) containing a node
-	if (row > maxrow) maxrow = row; 
-	
-	col = drawTree(root.left,map,row+1,col,maxrow);
-	map[row][col] = ((TYPE) root.element);
-	col++;
-	col = drawTree(root.right,map,row+1,col,maxrow);	
-	return col;
+    }
+
+    /*
+      Number of columns the subtree t takes when drawn at depth,
+      collapsing at maxDepth.  A subtree too small to reach maxDepth
+      takes a column per node; widths of the others are kept in memo.
+    */
+    private int width(BTNode<TYPE> t, int depth, int maxDepth,
+		      Map<BTNode<TYPE>, Integer> memo) {
+	if (t == null) return 0;
+	if (depth >= maxDepth) return 1;
+	if (size(t) - 1 <= maxDepth - depth) return size(t);
+	Integer w = memo.get(t);
+	if (w == null) {
+	    w = 1 + width(t.left, depth+1, maxDepth, memo)
+		+ width(t.right, depth+1, maxDepth, memo);
+	    memo.put(t, w);
+	}
+	return w;
     }
 
     /**
        Update drawing positions in tree prior to draw.
     */
     public void updatePositions() {
-	positionNodes(root,0,0);
+	updatePositions(0, Integer.MAX_VALUE, Integer.MAX_VALUE, null);
+    }
+
+    /**
+       Update drawing positions of the nodes in a viewport only, for
+       large trees.  A node's column is its rank, found from subtree
+       sizes, so subtrees entirely outside the columns minCol..maxCol
+       or below maxRow are skipped without being visited.
+       @param visible if not null, positioned nodes are added to it.
+       @return number of nodes positioned.
+    */
+    public int updatePositions(int minCol, int maxCol, int maxRow,
+			       List<BTNode<TYPE>> visible) {
+	return positionNodes(root, 0, 0, minCol, maxCol, maxRow, visible);
     }
 
     /**
-       Update x,y in each node.
+       Update x,y in the nodes of r that are in the viewport.
        y is the row = node depth.
-       x is the col = #preceding nodes in left subtree + 1
+       x is the col = #nodes before it in the whole tree; the subtree
+       r takes up columns col..col+size(r)-1.
     */
-    private int positionNodes(BTNode r, int row, int col) {
-	// stop if leaf node
-	if (r == null) return col;
-	
-	// set position left subtree nodes
-	col = positionNodes(r.left,row+1,col); 
-
-	// set position of this node
-	r.y = row;  // 
-	r.x = col;
-	col++;
-	// set pos of right subtree nodes
-	col = positionNodes(r.right,row+1,col); 
-	return col;
+    private int positionNodes(BTNode<TYPE> r, int row, int col,
+			      int minCol, int maxCol, int maxRow,
+			      List<BTNode<TYPE>> visible) {
+	// stop if leaf node or outside the viewport
+	if (r == null || row > maxRow || col > maxCol || col + size(r) <= minCol)
+	    return 0;
+	int x = col + size(r.left);
+	int n = positionNodes(r.left, row+1, col, minCol, maxCol, maxRow, visible);
+	if (minCol <= x && x <= maxCol) {
+	    r.y = row;
+	    r.x = x;
+	    if (visible != null) visible.add(r);
+	    n++;
+	}
+	return n + positionNodes(r.right, row+1, x+1, minCol, maxCol, maxRow, visible);
     }
 
     /**
        Inorder traversal.
     */
     public void inOrder() {
-        inOrderRec(root);
+        inOrder(System.out);
     }
 
-    // recursive inorder traversal
-    private void inOrderRec(BTNode<TYPE> t) {
-        if (t == null) return;
-        inOrderRec(t.left);
-        System.out.print(t.element + " ");
-        inOrderRec(t.right);
+    /**
+       Inorder traversal printed to out.  Uses an explicit stack, so
+       degenerate trees do not overflow the call stack.
+    */
+    public void inOrder(PrintStream out) {
+        ArrayDeque<BTNode<TYPE>> stack = new ArrayDeque<BTNode<TYPE>>();
+        BTNode<TYPE> t = root;
+        while (t != null || !stack.isEmpty()) {
+            while (t != null) {
+                stack.push(t);
+                t = t.left;
+            }
+            t = stack.pop();
+            for (int c = ((Node) t).count; c > 0; c--) out.print(t.element + " ");
+            t = t.right;
+        }
     }
 
-
-
+    /*
+      Dump a tree of n random keys, for trying out writeTree on big
+      trees.
+      USAGE: java BinarySearchTree n [maxDepth] > file
+    */
+    public static void main(String[] args) throws IOException {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+	int maxDepth = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+	BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+	for (int k : new Workload(42).uniform(n, Math.max(1, 10 * n))) tree.addElement(k);
+	Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+	tree.writeTree(out, maxDepth);
+    }
 }
@@ -0,0 +1,152 @@
+/*
+  Branchless lower-bound search over sorted arrays.
+
+  The loop body makes the same memory accesses whatever the outcome
+  of a comparison, so the JIT can compile the step as a conditional
+  move instead of a hard to predict branch.  For String arrays the
+  first four characters of every key are packed into a long[], so
+  most comparisons look at a primitive array and never dereference
+  the String.
+
+  USAGE (benchmark): java BranchlessSearch [n] [queries]
+*/
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class BranchlessSearch {
+
+    /**
+       @return index of the first element of a that is >= key, or
+       a.length if there is none.
+       @param a array sorted in increasing order.
+    */
+    public static int lowerBound(int[] a, int key) {
+	int n = a.length;
+	if (n == 0) return 0;
+	int base = 0;
+	while (n > 1) {
+	    int half = n >>> 1;
+	    base = (a[base + half - 1] < key) ? base + half : base;
+	    n -= half;
+	}
+	return base + (a[base] < key ? 1 : 0);
+    }
+
+    /**
+       Pack the first four characters of s into a long.  Missing
+       characters count as 0.  If s.compareTo(t) < 0 then
+       prefix(s) <= prefix(t) as signed longs.
+    */
+    public static long prefix(String s) {
+	long p = 0;
+	int len = s.length();
+	for (int i = 0; i < 4; i++) {
+	    p = (p << 16) | (i < len ? s.charAt(i) : 0);
+	}
+	// flip the sign bit so signed comparison orders like unsigned
+	return p ^ Long.MIN_VALUE;
+    }
+
+    /**
+       @return packed prefixes of every string of a, for use with
+       lowerBound(String[], long[], String).
+    */
+    public static long[] prefixes(String[] a) {
+	long[] p = new long[a.length];
+	for (int i = 0; i < a.length; i++) p[i] = prefix(a[i]);
+	return p;
+    }
+
+    /**
+       @return index of the first element of a that is >= key by
+       String.compareTo, or a.length if there is none.
+       @param a array sorted in increasing order.
+       @param pre packed prefixes of a, from prefixes(a).
+    */
+    public static int lowerBound(String[] a, long[] pre, String key) {
+	int n = a.length;
+	if (n == 0) return 0;
+	long p = prefix(key);
+	int base = 0;
+	while (n > 1) {
+	    int half = n >>> 1;
+	    int m = base + half - 1;
+	    // only equal prefixes need the full comparison
+	    boolean less = pre[m] < p ||
+		(pre[m] == p && a[m].compareTo(key) < 0);
+	    base = less ? base + half : base;
+	    n -= half;
+	}
+	boolean less = pre[base] < p ||
+	    (pre[base] == p && a[base].compareTo(key) < 0);
+	return base + (less ? 1 : 0);
+    }
+
+    /*
+      Time lookups of random keys with Arrays.binarySearch and with
+      lowerBound, for int and String arrays.
+    */
+    public static void main(String[] args) {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+	int q = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 22;
+	Random rand = new Random(42);
+
+	int[] a = new int[n];
+	for (int i = 0; i < n; i++) a[i] = rand.nextInt();
+	Arrays.sort(a);
+	int[] keys = new int[q];
+	for (int i = 0; i < q; i++)
+	    keys[i] = (i % 2 == 0) ? a[rand.nextInt(n)] : rand.nextInt();
+
+	String[] words = new String[n];
+	for (int i = 0; i < n; i++) words[i] = randomWord(rand);
+	Arrays.sort(words);
+	long[] pre = prefixes(words);
+	String[] wkeys = new String[q];
+	for (int i = 0; i < q; i++)
+	    wkeys[i] = (i % 2 == 0) ? words[rand.nextInt(n)] : randomWord(rand);
+
+	// check before timing
+	for (int i = 0; i < q; i++) {
+	    int lb = lowerBound(a, keys[i]);
+	    int bs = Arrays.binarySearch(a, keys[i]);
+	    if ((bs >= 0) != (lb < n && a[lb] == keys[i])) {
+		System.out.println("Failed int search test " + keys[i]);
+		System.exit(-1);
+	    }
+	    lb = lowerBound(words, pre, wkeys[i]);
+	    bs = Arrays.binarySearch(words, wkeys[i]);
+	    if ((bs >= 0) != (lb < n && words[lb].equals(wkeys[i]))) {
+		System.out.println("Failed String search test " + wkeys[i]);
+		System.exit(-1);
+	    }
+	}
+
+	System.out.println("n = " + n + ", queries = " + q);
+	for (int round = 0; round < 5; round++) {
+	    long sink = 0;
+	    long t0 = System.nanoTime();
+	    for (int k : keys) sink += Arrays.binarySearch(a, k);
+	    long t1 = System.nanoTime();
+	    for (int k : keys) sink += lowerBound(a, k);
+	    long t2 = System.nanoTime();
+	    for (String k : wkeys) sink += Arrays.binarySearch(words, k);
+	    long t3 = System.nanoTime();
+	    for (String k : wkeys) sink += lowerBound(words, pre, k);
+	    long t4 = System.nanoTime();
+	    System.out.printf("int: Arrays %.1f ns, branchless %.1f ns;  " +
+			      "String: Arrays %.1f ns, prefix %.1f ns  (%d)%n",
+			      (t1 - t0) / (double) q, (t2 - t1) / (double) q,
+			      (t3 - t2) / (double) q, (t4 - t3) / (double) q,
+			      sink & 1);
+	}
+    }
+
+    private static String randomWord(Random rand) {
+	int len = 3 + rand.nextInt(8);
+	char[] c = new char[len];
+	for (int i = 0; i < len; i++) c[i] = (char) ('a' + rand.nextInt(26));
+	return new String(c);
+    }
+}
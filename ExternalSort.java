@@ -0,0 +1,310 @@
+/*
+  External merge sort for binary files of ints (4 bytes each, big
+  endian) that are too large to sort in memory.
+
+  The input is read through NIO in chunks of chunkInts ints.  Each
+  chunk is sorted with Sorts.parallelRadixSort and written to a
+  temporary run file.  Runs are then merged fanIn at a time through
+  a heap until one is left.  The first phase holds two chunks (the
+  ints and the radix sort's scratch array) and one I/O buffer; the
+  merges hold fanIn+1 I/O buffers.
+
+  USAGE: java ExternalSort input output [chunkInts] [fanIn]
+  USAGE: java ExternalSort -gen output count   (random test input)
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class ExternalSort {
+    public static final int DEFAULT_CHUNK_INTS = 1 << 24;  // 64 MB
+    public static final int DEFAULT_FAN_IN = 64;
+    public static final int DEFAULT_BUFFER_BYTES = 1 << 20;
+
+    private final int chunkInts;   // ints sorted in memory at a time
+    private final int fanIn;       // runs merged at a time
+    private final int bufferBytes; // size of each merge read buffer
+    private final Path tmpDir;     // where runs are spilled
+
+    private int passes; // merge passes made by the last sort
+
+    public ExternalSort() {
+	this(DEFAULT_CHUNK_INTS, DEFAULT_FAN_IN, DEFAULT_BUFFER_BYTES, null);
+    }
+
+    /**
+       @param chunkInts number of ints sorted in memory per run, at
+       most Integer.MAX_VALUE / 4 so a run's size in bytes is an int.
+       @param fanIn number of runs merged at a time, at least 2.
+       @param bufferBytes size of each I/O buffer.
+       @param tmpDir directory for run files, or null for the default
+       temporary directory.
+    */
+    public ExternalSort(int chunkInts, int fanIn, int bufferBytes, Path tmpDir) {
+	if (chunkInts < 1 || chunkInts > Integer.MAX_VALUE / 4
+	    || fanIn < 2 || bufferBytes < 4)
+	    throw new IllegalArgumentException("bad external sort parameters");
+	this.chunkInts = chunkInts;
+	this.fanIn = fanIn;
+	this.bufferBytes = bufferBytes & ~3;
+	this.tmpDir = tmpDir;
+    }
+
+    /** @return number of merge passes made by the last call to sort. */
+    public int passes() {
+	return passes;
+    }
+
+    /**
+       Sort the ints of input into output.
+       @return number of bytes sorted.
+    */
+    public long sort(Path input, Path output) throws IOException {
+	long bytes = Files.size(input);
+	if (bytes % 4 != 0)
+	    throw new IOException(input + " is not a whole number of ints");
+	passes = 0;
+	List<Path> runs = makeRuns(input);
+	List<Path> next = new ArrayList<Path>(); // runs of the pass being made
+	try {
+	    if (runs.isEmpty()) {
+		Files.write(output, new byte[0]);
+		return 0;
+	    }
+	    while (runs.size() > 1) {
+		next = new ArrayList<Path>();
+		boolean last = runs.size() <= fanIn;
+		for (int i = 0; i < runs.size(); i += fanIn) {
+		    List<Path> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+		    Path merged = last ? output : newRunFile();
+		    if (!last) next.add(merged); // so a failed merge still cleans it up
+		    merge(group, merged);
+		    for (Path p : group) Files.delete(p);
+		}
+		runs = next;
+		passes++;
+	    }
+	    if (passes == 0)
+		Files.move(runs.get(0), output, StandardCopyOption.REPLACE_EXISTING);
+	} finally {
+	    for (Path p : runs) Files.deleteIfExists(p);
+	    for (Path p : next) Files.deleteIfExists(p);
+	}
+	return bytes;
+    }
+
+    /*
+      Sort the input a chunk at a time into run files.  The chunk is
+      read and written through one I/O buffer, so besides it only the
+      radix sort's scratch array of the same size is held.  A short
+      last chunk is copied and the full one dropped before sorting.
+    */
+    private List<Path> makeRuns(Path input) throws IOException {
+	List<Path> runs = new ArrayList<Path>();
+	ByteBuffer buf = ByteBuffer.allocateDirect(bufferBytes);
+	IntBuffer ints = buf.asIntBuffer();
+	int chunk[] = new int[chunkInts];
+	try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+	    while (true) {
+		int n = 0;
+		boolean eof = false;
+		while (n < chunkInts && !eof) {
+		    buf.clear();
+		    buf.limit(Math.min(bufferBytes, 4 * (chunkInts - n)));
+		    while (buf.hasRemaining() && in.read(buf) >= 0) ;
+		    eof = buf.hasRemaining();
+		    int m = buf.position() / 4;
+		    ints.clear();
+		    ints.get(chunk, n, m);
+		    n += m;
+		}
+		if (n == 0) break;
+		int a[] = chunk;
+		if (n < chunkInts) {
+		    a = Arrays.copyOf(chunk, n);
+		    chunk = null;
+		}
+		Sorts.parallelRadixSort(a);
+
+		Path run = newRunFile();
+		runs.add(run);
+		try (FileChannel out = FileChannel.open(run, StandardOpenOption.WRITE)) {
+		    for (int off = 0; off < n; ) {
+			int m = Math.min(n - off, bufferBytes / 4);
+			ints.clear();
+			ints.put(a, off, m);
+			buf.clear();
+			buf.limit(4 * m);
+			while (buf.hasRemaining()) out.write(buf);
+			off += m;
+		    }
+		}
+		if (n < chunkInts) break;
+	    }
+	} catch (IOException ex) {
+	    for (Path p : runs) Files.deleteIfExists(p);
+	    throw ex;
+	}
+	return runs;
+    }
+
+    private Path newRunFile() throws IOException {
+	Path p = (tmpDir == null) ? Files.createTempFile("run", ".bin")
+	    : Files.createTempFile(tmpDir, "run", ".bin");
+	p.toFile().deleteOnExit();
+	return p;
+    }
+
+    /*
+      k-way merge of sorted run files into output.  heap holds the
+      indices of the runs that are not exhausted, ordered by their
+      current element.
+    */
+    private void merge(List<Path> group, Path output) throws IOException {
+	int k = group.size();
+	RunReader readers[] = new RunReader[k];
+	int heap[] = new int[k];
+	int size = 0;
+	try (FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+	    for (int i = 0; i < k; i++) {
+		readers[i] = new RunReader(group.get(i), bufferBytes);
+		if (readers[i].advance()) heap[size++] = i;
+	    }
+	    for (int i = size / 2 - 1; i >= 0; i--) siftDown(heap, size, i, readers);
+
+	    ByteBuffer obuf = ByteBuffer.allocateDirect(bufferBytes);
+	    while (size > 0) {
+		RunReader r = readers[heap[0]];
+		if (!obuf.hasRemaining()) drain(obuf, out);
+		obuf.putInt(r.head);
+		if (!r.advance()) heap[0] = heap[--size];
+		siftDown(heap, size, 0, readers);
+	    }
+	    drain(obuf, out);
+	} finally {
+	    for (RunReader r : readers) if (r != null) r.close();
+	}
+    }
+
+    private static void drain(ByteBuffer buf, FileChannel out) throws IOException {
+	buf.flip();
+	while (buf.hasRemaining()) out.write(buf);
+	buf.clear();
+    }
+
+    private static void siftDown(int heap[], int size, int i, RunReader readers[]) {
+	int x = heap[i];
+	int key = readers[x].head;
+	while (2 * i + 1 < size) {
+	    int child = 2 * i + 1;
+	    if (child + 1 < size &&
+		readers[heap[child + 1]].head < readers[heap[child]].head) child++;
+	    if (key <= readers[heap[child]].head) break;
+	    heap[i] = heap[child];
+	    i = child;
+	}
+	heap[i] = x;
+    }
+
+    /* sequential reader of the ints of a run file */
+    private static class RunReader {
+	private final FileChannel in;
+	private final ByteBuffer buf;
+	private final IntBuffer ints;
+	int head; // current element, valid after advance() returns true
+
+	RunReader(Path p, int bufferBytes) throws IOException {
+	    in = FileChannel.open(p, StandardOpenOption.READ);
+	    buf = ByteBuffer.allocateDirect(bufferBytes);
+	    ints = buf.asIntBuffer();
+	    ints.limit(0);
+	}
+
+	/* move to the next element; false when the run is exhausted */
+	boolean advance() throws IOException {
+	    if (!ints.hasRemaining()) {
+		buf.clear();
+		while (buf.hasRemaining() && in.read(buf) >= 0) ;
+		ints.clear();
+		ints.limit(buf.position() / 4);
+		if (!ints.hasRemaining()) return false;
+	    }
+	    head = ints.get();
+	    return true;
+	}
+
+	void close() throws IOException {
+	    in.close();
+	}
+    }
+
+    /* write count random ints to output */
+    private static void generate(Path output, long count) throws IOException {
+	Random rand = new Random(42);
+	ByteBuffer buf = ByteBuffer.allocateDirect(DEFAULT_BUFFER_BYTES);
+	try (FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+	    for (long i = 0; i < count; i++) {
+		if (!buf.hasRemaining()) drain(buf, out);
+		buf.putInt(rand.nextInt());
+	    }
+	    drain(buf, out);
+	}
+    }
+
+    /* check that the ints of p are in increasing order */
+    private static boolean isSorted(Path p) throws IOException {
+	RunReader r = new RunReader(p, DEFAULT_BUFFER_BYTES);
+	try {
+	    if (!r.advance()) return true;
+	    int prev = r.head;
+	    while (r.advance()) {
+		if (r.head < prev) return false;
+		prev = r.head;
+	    }
+	    return true;
+	} finally {
+	    r.close();
+	}
+    }
+
+    public static void main(String[] args) throws IOException {
+	if (args.length >= 3 && args[0].equals("-gen")) {
+	    generate(Paths.get(args[1]), Long.parseLong(args[2]));
+	    return;
+	}
+	if (args.length < 2) {
+	    System.err.println("USAGE: java ExternalSort input output [chunkInts] [fanIn]");
+	    System.exit(-1);
+	}
+	int chunkInts = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CHUNK_INTS;
+	int fanIn = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_FAN_IN;
+	ExternalSort sorter = new ExternalSort(chunkInts, fanIn,
+					       DEFAULT_BUFFER_BYTES, null);
+	Path output = Paths.get(args[1]);
+
+	long start = System.nanoTime();
+	long bytes = sorter.sort(Paths.get(args[0]), output);
+	double secs = (System.nanoTime() - start) / 1e9;
+	System.out.printf("Sorted %d bytes in %.3f s (%.1f MB/s), %d merge passes%n",
+			  bytes, secs, bytes / secs / 1e6, sorter.passes());
+	if (!isSorted(output)) {
+	    System.out.println("Failed external sort test");
+	    System.exit(-1);
+	}
+    }
+}
@@ -0,0 +1,340 @@
+/*
+  Word count checkpoints: binary files of (word, count) pairs sorted
+  by word, so counts made on many machines can be combined by
+  merging files instead of by hand.
+
+  A checkpoint is a header (magic "FQCK", version, number of
+  entries) followed by the entries in String.compareTo order, each a
+  UTF-8 word with its length and a long count.  Files are read and
+  written with the buffered channels of TreeSnapshot.
+
+  merge combines any number of checkpoints into one, adding the
+  counts of equal words, by a streaming k-way merge through a heap
+  as in ExternalSort: at most fanIn files are open at a time, each
+  with one buffer, and more inputs than that are merged in passes
+  through temporary files.  Memory does not depend on the number of
+  words.  Zipf can read the result for its top-N list and plot.
+
+  USAGE: java FreqCheckpoint -merge output input...
+  USAGE: java FreqCheckpoint -dump checkpoint
+  USAGE: java FreqCheckpoint [parts] [words]   (merge test)
+*/
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+public class FreqCheckpoint {
+    public static final int MAGIC = 0x46514b43; // "FQCK"
+    public static final int VERSION = 1;
+    public static final int DEFAULT_FAN_IN = 64;
+    private static final int COUNT_OFFSET = 6;  // of the entry count in the header
+
+    private FreqCheckpoint() { }
+
+    /** Appends entries, which must come in increasing order of word. */
+    public static final class Writer implements AutoCloseable {
+	private final Path file;
+	private final TreeSnapshot.Out out;
+	private String last;
+	private long n;
+
+	public Writer(Path file) throws IOException {
+	    this.file = file;
+	    out = new TreeSnapshot.Out(FileChannel.open(file, StandardOpenOption.WRITE,
+							StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING));
+	    out.putInt(MAGIC);
+	    out.putShort(VERSION);
+	    out.putLong(0); // number of entries, filled in by close
+	}
+
+	public void write(String word, long count) throws IOException {
+	    if (last != null && word.compareTo(last) <= 0)
+		throw new IllegalArgumentException("words out of order: " + last + ", " + word);
+	    out.putBytes(word.getBytes(StandardCharsets.UTF_8));
+	    out.putLong(count);
+	    last = word;
+	    n++;
+	}
+
+	/** @return number of entries written so far. */
+	public long entries() {
+	    return n;
+	}
+
+	public void close() throws IOException {
+	    out.close();
+	    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+		ByteBuffer b = ByteBuffer.allocate(8).putLong(0, n);
+		while (b.hasRemaining()) ch.write(b, COUNT_OFFSET + b.position());
+	    }
+	}
+    }
+
+    /** Reads the entries of a checkpoint in order. */
+    public static final class Reader implements AutoCloseable {
+	private final TreeSnapshot.In in;
+	private final long n;
+	private long read;
+	private String word;  // current entry, valid after next() returns true
+	private long count;
+
+	public Reader(Path file) throws IOException {
+	    in = new TreeSnapshot.In(FileChannel.open(file, StandardOpenOption.READ));
+	    try {
+		if (in.getInt() != MAGIC)
+		    throw new IOException(file + " is not a frequency checkpoint");
+		int version = in.getShort();
+		if (version != VERSION)
+		    throw new IOException(file + ": unsupported checkpoint version " + version);
+		n = in.getLong();
+		if (n < 0) throw new IOException(file + ": bad number of entries " + n);
+	    } catch (IOException ex) {
+		in.close();
+		throw ex;
+	    }
+	}
+
+	/** @return number of entries in the file. */
+	public long entries() {
+	    return n;
+	}
+
+	/* move to the next entry; false at the end */
+	public boolean next() throws IOException {
+	    if (read == n) return false;
+	    word = new String(in.getBytes(), StandardCharsets.UTF_8);
+	    count = in.getLong();
+	    read++;
+	    return true;
+	}
+
+	public String word() {
+	    return word;
+	}
+
+	public long count() {
+	    return count;
+	}
+
+	public void close() throws IOException {
+	    in.close();
+	}
+    }
+
+    /**
+       Write the counts of a word count table as a checkpoint.
+       @return number of entries written.
+    */
+    public static long write(SelfOrganizingST<String, Integer> st, Path file)
+	throws IOException {
+	ArrayList<String> words = new ArrayList<String>();
+	for (String w : st.keys()) words.add(w);
+	String sorted[] = words.toArray(new String[0]);
+	Arrays.sort(sorted);
+	try (Writer out = new Writer(file)) {
+	    // reading the counts back reorders the table, but not its contents
+	    for (String w : sorted) out.write(w, st.get(w));
+	    return out.entries();
+	}
+    }
+
+    /**
+       Merge checkpoints into output, adding the counts of equal words.
+       @return number of entries written.
+    */
+    public static long merge(List<Path> inputs, Path output) throws IOException {
+	return merge(inputs, output, DEFAULT_FAN_IN);
+    }
+
+    /**
+       @param fanIn number of files merged at a time, at least 2.
+    */
+    public static long merge(List<Path> inputs, Path output, int fanIn) throws IOException {
+	if (fanIn < 2) throw new IllegalArgumentException("fanIn < 2");
+	List<Path> runs = new ArrayList<Path>(inputs);
+	List<Path> temps = new ArrayList<Path>();
+	try {
+	    while (runs.size() > fanIn) {
+		List<Path> next = new ArrayList<Path>();
+		for (int i = 0; i < runs.size(); i += fanIn) {
+		    Path merged = Files.createTempFile("freq", ".ckpt");
+		    merged.toFile().deleteOnExit();
+		    temps.add(merged);
+		    mergeGroup(runs.subList(i, Math.min(runs.size(), i + fanIn)), merged);
+		    next.add(merged);
+		}
+		runs = next;
+	    }
+	    return mergeGroup(runs, output);
+	} finally {
+	    for (Path p : temps) Files.deleteIfExists(p);
+	}
+    }
+
+    /*
+      k-way merge.  heap holds the readers that are not exhausted,
+      ordered by their current word; equal words from several
+      readers come off the heap one after another and are summed.
+    */
+    private static long mergeGroup(List<Path> group, Path output) throws IOException {
+	int k = group.size();
+	Reader readers[] = new Reader[k];
+	int heap[] = new int[k];
+	int size = 0;
+	try (Writer out = new Writer(output)) {
+	    for (int i = 0; i < k; i++) {
+		readers[i] = new Reader(group.get(i));
+		if (readers[i].next()) heap[size++] = i;
+	    }
+	    for (int i = size / 2 - 1; i >= 0; i--) siftDown(heap, size, i, readers);
+
+	    String word = null;
+	    long count = 0;
+	    while (size > 0) {
+		Reader r = readers[heap[0]];
+		if (word != null && !r.word.equals(word)) {
+		    out.write(word, count);
+		    count = 0;
+		}
+		word = r.word;
+		count += r.count;
+		if (!r.next()) heap[0] = heap[--size];
+		siftDown(heap, size, 0, readers);
+	    }
+	    if (word != null) out.write(word, count);
+	    return out.entries();
+	} finally {
+	    for (Reader r : readers) if (r != null) r.close();
+	}
+    }
+
+    private static void siftDown(int heap[], int size, int i, Reader readers[]) {
+	int x = heap[i];
+	String key = readers[x].word;
+	while (2 * i + 1 < size) {
+	    int child = 2 * i + 1;
+	    if (child + 1 < size &&
+		readers[heap[child + 1]].word.compareTo(readers[heap[child]].word) < 0) child++;
+	    if (key.compareTo(readers[heap[child]].word) <= 0) break;
+	    heap[i] = heap[child];
+	    i = child;
+	}
+	heap[i] = x;
+    }
+
+    /**
+       The num most frequent words of a checkpoint, most frequent
+       first, read in one pass with a heap of num entries.
+       @param counts if not null, gets the count of each word returned.
+    */
+    public static String[] topN(Path file, int num, long counts[]) throws IOException {
+	PriorityQueue<Object[]> heap = new PriorityQueue<Object[]>(Math.max(1, num),
+	    (a, b) -> Long.compare((Long) a[1], (Long) b[1]));
+	try (Reader in = new Reader(file)) {
+	    while (in.next()) {
+		if (heap.size() < num) heap.add(new Object[] {in.word(), in.count()});
+		else if (num > 0 && in.count() > (Long) heap.peek()[1]) {
+		    heap.poll();
+		    heap.add(new Object[] {in.word(), in.count()});
+		}
+	    }
+	}
+	String top[] = new String[heap.size()];
+	for (int i = top.length - 1; i >= 0; i--) {
+	    Object e[] = heap.poll();
+	    top[i] = (String) e[0];
+	    if (counts != null) counts[i] = (Long) e[1];
+	}
+	return top;
+    }
+
+    /* print the entries of a checkpoint, one "word count" per line */
+    private static void dump(Path file, PrintStream out) throws IOException {
+	try (Reader in = new Reader(file)) {
+	    while (in.next()) out.println(in.word() + " " + in.count());
+	}
+    }
+
+    /*
+      Merge test: count a Zipfian stream of words in parts, checkpoint
+      each part, merge the checkpoints with a small fan-in so it takes
+      several passes, and compare with counting the whole stream.
+    */
+    public static void main(String[] args) throws IOException {
+	if (args.length >= 2 && args[0].equals("-merge")) {
+	    List<Path> inputs = new ArrayList<Path>();
+	    for (int i = 2; i < args.length; i++) inputs.add(Paths.get(args[i]));
+	    long start = System.nanoTime();
+	    long n = merge(inputs, Paths.get(args[1]));
+	    System.err.printf("Merged %d checkpoints into %d words in %.3f s%n",
+			      inputs.size(), n, (System.nanoTime() - start) / 1e9);
+	    return;
+	}
+	if (args.length == 2 && args[0].equals("-dump")) {
+	    PrintStream out = new PrintStream(System.out, false);
+	    dump(Paths.get(args[1]), out);
+	    out.flush();
+	    return;
+	}
+
+	int parts = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+	int m = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+	int vocab = 5000;
+	int ranks[] = new Workload(42).zipf(m, vocab, 1.0);
+	HashMap<String, Long> total = new HashMap<String, Long>();
+	List<Path> files = new ArrayList<Path>();
+	for (int p = 0; p < parts; p++) {
+	    SelfOrganizingST<String, Integer> st = new SelfOrganizingST<String, Integer>();
+	    for (int i = p; i < m; i += parts) {
+		String w = "w" + Integer.toString(ranks[i], 36);
+		Integer c = st.get(w);
+		st.put(w, c == null ? 1 : c + 1);
+		total.merge(w, 1L, Long::sum);
+	    }
+	    Path f = Files.createTempFile("part", ".ckpt");
+	    f.toFile().deleteOnExit();
+	    write(st, f);
+	    files.add(f);
+	}
+	Path merged = Files.createTempFile("merged", ".ckpt");
+	merged.toFile().deleteOnExit();
+	long start = System.nanoTime();
+	long n = merge(files, merged, 8);
+	double secs = (System.nanoTime() - start) / 1e9;
+
+	boolean ok = n == total.size();
+	String prev = null;
+	try (Reader in = new Reader(merged)) {
+	    while (ok && in.next()) {
+		ok = (prev == null || prev.compareTo(in.word()) < 0)
+		    && total.get(in.word()) == in.count();
+		prev = in.word();
+	    }
+	}
+	long counts[] = new long[10];
+	String top[] = topN(merged, 10, counts);
+	for (int i = 1; ok && i < top.length; i++) ok = counts[i-1] >= counts[i];
+	ok = ok && top[0].equals("w0") && counts[0] == total.get("w0");
+	if (!ok) {
+	    System.out.println("Failed checkpoint merge test");
+	    System.exit(-1);
+	}
+	System.out.printf("Merged %d checkpoints of %d words into %d words in %.3f s%n",
+			  parts, m, n, secs);
+	for (int i = 0; i < top.length; i++) System.out.println(top[i] + " " + counts[i]);
+    }
+}
@@ -0,0 +1,445 @@
+/**
+ *  A bounded cache that evicts the least recently used entry, built
+ *  on the move-to-front list of {@code SelfOrganizingST}: get and put
+ *  move the entry they touch to the front, so the entry at the back
+ *  is always the least recently used one.
+ *
+ *  <p> To make every operation O(1) the list is doubly linked, with
+ *  entries in parallel arrays as in {@code PooledSelfOrganizingST},
+ *  and a hash index (open addressing, linear probing) maps keys to
+ *  their slots instead of a sequential search.  Freed slots are
+ *  reused, so a full cache allocates nothing as entries come and go.
+ *
+ *  <p> The cache is bounded by a number of entries, by a total
+ *  weight given by a {@code Weigher}, or by both.  An insert that
+ *  goes over a bound evicts from the back until it holds again, and
+ *  tells the {@code EvictionListener} if there is one.  It keeps
+ *  counts of hits, misses and evictions.  As with the symbol tables,
+ *  values cannot be null and the cache is not thread-safe.
+ *
+ *  USAGE: java LRUCache [capacity] [lookups] [zipf exponent]
+ */
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+public class LRUCache<Key, Value> {
+    /** Weight of an entry, for caches bounded by total weight. */
+    public interface Weigher<K, V> {
+	int weigh(K key, V val);
+    }
+
+    /** Told of every entry evicted to stay within the bounds. */
+    public interface EvictionListener<K, V> {
+	void evicted(K key, V val);
+    }
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final Weigher<? super Key, ? super Value> weigher;
+    private EvictionListener<? super Key, ? super Value> listener;
+
+    private int n;              // number of entries
+    private long weight;        // their total weight
+    private Object keys[];      // slot 0 is the sentinel
+    private Object vals[];
+    private int next[], prev[]; // next[0] is the most recent, prev[0] the least
+    private int weights[];      // null without a weigher
+    private int free = -1;      // free slots, linked through next
+    private int top = 1;        // slots at or above top were never used
+    private int index[];        // slot + 1 of each key, 0 if empty
+    private long hits, misses, evictions;
+
+    /**
+     * A cache of at most maxEntries entries.
+     * @param maxEntries the maximum number of entries
+     */
+    public LRUCache(int maxEntries) {
+	this(maxEntries, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * A cache of entries weighing at most maxWeight in total.
+     * @param maxWeight the maximum total weight
+     * @param weigher weight of each entry, which must not be negative
+     */
+    public LRUCache(long maxWeight, Weigher<? super Key, ? super Value> weigher) {
+	this(Integer.MAX_VALUE, maxWeight, weigher);
+    }
+
+    /**
+     * A cache bounded by both number of entries and total weight.
+     * @param maxEntries the maximum number of entries
+     * @param maxWeight the maximum total weight, if weigher is not null
+     * @param weigher weight of each entry, or null
+     */
+    public LRUCache(int maxEntries, long maxWeight, Weigher<? super Key, ? super Value> weigher) {
+	if (maxEntries < 1) throw new IllegalArgumentException("maxEntries < 1");
+	if (weigher != null && maxWeight < 0)
+	    throw new IllegalArgumentException("maxWeight < 0");
+	this.maxEntries = maxEntries;
+	this.maxWeight = weigher == null ? Long.MAX_VALUE : maxWeight;
+	this.weigher = weigher;
+	int c = 1 + Math.min(maxEntries, 16);
+	keys = new Object[c];
+	vals = new Object[c];
+	next = new int[c];
+	prev = new int[c];
+	if (weigher != null) weights = new int[c];
+	index = new int[32];
+    }
+
+    /** Call listener with every entry evicted from now on. */
+    public void setEvictionListener(EvictionListener<? super Key, ? super Value> listener) {
+	this.listener = listener;
+    }
+
+    /** @return number of entries in the cache. */
+    public int size() {
+	return n;
+    }
+
+    public boolean isEmpty() {
+	return n == 0;
+    }
+
+    /** @return total weight of the entries, 0 without a weigher. */
+    public long weight() {
+	return weight;
+    }
+
+    /** @return number of gets that found their key. */
+    public long hits() {
+	return hits;
+    }
+
+    /** @return number of gets that did not. */
+    public long misses() {
+	return misses;
+    }
+
+    /** @return number of entries evicted to stay within the bounds. */
+    public long evictions() {
+	return evictions;
+    }
+
+    /** @return fraction of gets that were hits, 0 if there were none. */
+    public double hitRate() {
+	long total = hits + misses;
+	return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Is key in the cache?  Does not count as a use.
+     * @param key the key
+     */
+    public boolean contains(Key key) {
+	return find(key) != 0;
+    }
+
+    /**
+     * Returns the value of key and makes it the most recently used.
+     * @param key the key
+     * @return the value of key, or null if it is not in the cache
+     */
+    @SuppressWarnings("unchecked")
+    public Value get(Key key) {
+	int i = find(key);
+	if (i == 0) {
+	    misses++;
+	    return null;
+	}
+	hits++;
+	moveToFront(i);
+	return (Value) vals[i];
+    }
+
+    /**
+     * Returns the value of key, computing and caching it on a miss.
+     * @param key the key
+     * @param loader computes the value of a key; a null result is
+     *     returned but not cached
+     */
+    public Value get(Key key, Function<? super Key, ? extends Value> loader) {
+	Value val = get(key);
+	if (val == null) {
+	    val = loader.apply(key);
+	    if (val != null) put(key, val);
+	}
+	return val;
+    }
+
+    /**
+     * Inserts or replaces the value of key as the most recently
+     * used entry, then evicts least recently used entries as long as
+     * the cache is over its bounds.  A null value deletes the key.
+     * @param key the key
+     * @param val the value
+     */
+    public void put(Key key, Value val) {
+	if (key == null) throw new IllegalArgumentException("key is null");
+	if (val == null) {
+	    delete(key);
+	    return;
+	}
+	int w = 0;
+	if (weigher != null) {
+	    w = weigher.weigh(key, val);
+	    if (w < 0) throw new IllegalArgumentException("negative weight " + w);
+	}
+	int i = find(key);
+	if (i != 0) {
+	    vals[i] = val;
+	    if (weights != null) {
+		weight += w - weights[i];
+		weights[i] = w;
+	    }
+	    moveToFront(i);
+	}
+	else {
+	    i = allocate();
+	    keys[i] = key;
+	    vals[i] = val;
+	    if (weights != null) weights[i] = w;
+	    weight += w;
+	    link(i);
+	    insertIndex(i);
+	    n++;
+	}
+	while (n > maxEntries || weight > maxWeight) {
+	    int lru = prev[0];
+	    @SuppressWarnings("unchecked") Key k = (Key) keys[lru];
+	    @SuppressWarnings("unchecked") Value v = (Value) vals[lru];
+	    remove(lru);
+	    evictions++;
+	    if (listener != null) listener.evicted(k, v);
+	}
+    }
+
+    /**
+     * Removes key from the cache, if it is there.  Not an eviction.
+     * @param key the key
+     */
+    public void delete(Key key) {
+	int i = find(key);
+	if (i != 0) remove(i);
+    }
+
+    /** Remove every entry.  Statistics are kept. */
+    public void clear() {
+	while (n > 0) remove(prev[0]);
+    }
+
+    /**
+     * Returns the keys, most recently used first.
+     * @return all keys in the cache as an {@code Iterable}
+     */
+    @SuppressWarnings("unchecked")
+    public Iterable<Key> keys() {
+	LinkedList<Key> list = new LinkedList<Key>();
+	for (int i = next[0]; i != 0; i = next[i]) list.add((Key) keys[i]);
+	return list;
+    }
+
+    /* put slot i at the front of the list */
+    private void link(int i) {
+	next[i] = next[0];
+	prev[i] = 0;
+	prev[next[0]] = i;
+	next[0] = i;
+    }
+
+    private void unlink(int i) {
+	next[prev[i]] = next[i];
+	prev[next[i]] = prev[i];
+    }
+
+    private void moveToFront(int i) {
+	if (next[0] == i) return;
+	unlink(i);
+	link(i);
+    }
+
+    /* take slot i out of the list and the index and free it */
+    private void remove(int i) {
+	unlink(i);
+	removeIndex(i);
+	if (weights != null) weight -= weights[i];
+	keys[i] = vals[i] = null; // no loitering
+	next[i] = free;
+	free = i;
+	n--;
+    }
+
+    /* a free slot, from the free list if possible */
+    private int allocate() {
+	if (free != -1) {
+	    int i = free;
+	    free = next[i];
+	    return i;
+	}
+	if (top == keys.length) {
+	    int c = (int) Math.min(2L * keys.length, (long) maxEntries + 2);
+	    keys = Arrays.copyOf(keys, c);
+	    vals = Arrays.copyOf(vals, c);
+	    next = Arrays.copyOf(next, c);
+	    prev = Arrays.copyOf(prev, c);
+	    if (weights != null) weights = Arrays.copyOf(weights, c);
+	}
+	return top++;
+    }
+
+    private static int hash(Object key) {
+	int h = key.hashCode() * 0x9e3779b9;
+	return h ^ (h >>> 16);
+    }
+
+    /* slot of key, 0 if it is not in the cache */
+    private int find(Object key) {
+	if (key == null) return 0;
+	int mask = index.length - 1;
+	for (int h = hash(key) & mask; index[h] != 0; h = (h + 1) & mask) {
+	    int i = index[h] - 1;
+	    if (keys[i].equals(key)) return i;
+	}
+	return 0;
+    }
+
+    private void insertIndex(int i) {
+	if (2 * (n + 1) > index.length) {
+	    int old[] = index;
+	    index = new int[2 * old.length];
+	    for (int s : old) if (s != 0) place(s);
+	}
+	place(i + 1);
+    }
+
+    private void place(int s) {
+	int mask = index.length - 1;
+	int h = hash(keys[s - 1]) & mask;
+	while (index[h] != 0) h = (h + 1) & mask;
+	index[h] = s;
+    }
+
+    /*
+      Remove slot i from the index, shifting back later entries of
+      its probe run so lookups need no tombstones (Knuth's
+      Algorithm R).
+    */
+    private void removeIndex(int i) {
+	int mask = index.length - 1;
+	int h = hash(keys[i]) & mask;
+	while (index[h] != i + 1) h = (h + 1) & mask;
+	int gap = h;
+	for (h = (gap + 1) & mask; index[h] != 0; h = (h + 1) & mask) {
+	    int home = hash(keys[index[h] - 1]) & mask;
+	    // move it into the gap unless its home lies in (gap, h]
+	    if (((h - home) & mask) >= ((h - gap) & mask)) {
+		index[gap] = index[h];
+		gap = h;
+	    }
+	}
+	index[gap] = 0;
+    }
+
+    /*
+      Check against a LinkedHashMap in access order, for count and
+      weight bounds, then replay a Zipfian trace of lookups through
+      caches of several sizes in front of a SpellCheck dictionary.
+    */
+    public static void main(String[] args) throws IOException {
+	int capacity = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+	int m = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+	double s = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+	Random rand = new Random(42);
+
+	for (int bound = 0; bound < 2; bound++) {
+	    final int max = 100;
+	    LRUCache<Integer, Integer> cache = bound == 0 ? new LRUCache<Integer, Integer>(max)
+		: new LRUCache<Integer, Integer>(1000, (k, v) -> v % 20);
+	    long evicted[] = new long[1];
+	    cache.setEvictionListener((k, v) -> evicted[0]++);
+	    LinkedHashMap<Integer, Integer> model = new LinkedHashMap<Integer, Integer>(16, 0.75f, true);
+	    long modelWeight = 0;
+	    for (int i = 0; i < 500_000; i++) {
+		Integer k = rand.nextInt(400);
+		int op = rand.nextInt(4);
+		boolean ok = true;
+		if (op == 0) {
+		    Integer a = cache.get(k), b = model.get(k);
+		    ok = a == null ? b == null : a.equals(b);
+		}
+		else if (op == 3) {
+		    cache.delete(k);
+		    Integer v = model.remove(k);
+		    if (v != null) modelWeight -= v % 20;
+		}
+		else {
+		    Integer v = rand.nextInt(1000);
+		    cache.put(k, v);
+		    Integer old = model.put(k, v);
+		    if (old != null) modelWeight -= old % 20;
+		    modelWeight += v % 20;
+		    while (bound == 0 ? model.size() > max : modelWeight > 1000) {
+			Map.Entry<Integer, Integer> e = model.entrySet().iterator().next();
+			modelWeight -= e.getValue() % 20;
+			model.remove(e.getKey());
+		    }
+		}
+		if (!ok || cache.size() != model.size()
+		    || (bound == 1 && cache.weight() != modelWeight)) {
+		    System.out.println("Failed LRU cache test at op " + i);
+		    System.exit(-1);
+		}
+	    }
+	    // LinkedHashMap iterates least recent first
+	    ArrayList<Integer> order = new ArrayList<Integer>(model.keySet());
+	    java.util.Collections.reverse(order);
+	    ArrayList<Integer> got = new ArrayList<Integer>();
+	    for (Integer k : cache.keys()) got.add(k);
+	    if (!order.equals(got) || evicted[0] != cache.evictions() || evicted[0] == 0) {
+		System.out.println("Failed LRU cache order test");
+		System.exit(-1);
+	    }
+	}
+
+	// a dictionary of random words, and a Zipfian trace of them
+	int nwords = 200_000;
+	String dict[] = new String[nwords];
+	for (int i = 0; i < nwords; i++) {
+	    char c[] = new char[4 + rand.nextInt(8)];
+	    for (int j = 0; j < c.length; j++) c[j] = (char) ('a' + rand.nextInt(26));
+	    dict[i] = new String(c);
+	}
+	File f = File.createTempFile("dict", ".txt");
+	f.deleteOnExit();
+	Files.write(f.toPath(), Arrays.asList(dict));
+	SpellCheck checker = new SpellCheck(f.getPath());
+	int ranks[] = new Workload(42).zipf(m, nwords, s);
+	String trace[] = new String[m];
+	for (int i = 0; i < m; i++) trace[i] = dict[ranks[i]];
+
+	System.out.printf("%d Zipf(%.2f) lookups of %d words, ns/lookup%n", m, s, nwords);
+	System.out.printf("%-10s %10s %10s%n", "cache", "hit rate", "ns");
+	for (int c : new int[] {0, capacity / 10, capacity, 10 * capacity}) {
+	    LRUCache<String, Integer> cache = new LRUCache<String, Integer>(Math.max(1, c));
+	    long t0 = System.nanoTime(), sum = 0;
+	    for (String w : trace)
+		sum += c == 0 ? checker.indexOf(w) : cache.get(w, checker::indexOf);
+	    long t1 = System.nanoTime();
+	    if (sum < 0) {
+		System.out.println("Failed cached lookup test");
+		System.exit(-1);
+	    }
+	    System.out.printf("%-10d %10.3f %10.1f%n", c, c == 0 ? 0 : cache.hitRate(),
+			      (double) (t1 - t0) / m);
+	}
+    }
+}
@@ -0,0 +1,284 @@
+/*
+  A learned index over a sorted int array, in the style of the PGM
+  index (Ferragina and Vinciguerra, 2020): the map from key to
+  position is approximated by line segments, so a lookup computes a
+  predicted position and searches only the few elements around it.
+
+  Segments are found in one pass with a shrinking cone (as in the
+  FITing-tree): a segment starts at a key with its exact position
+  and keeps the range of slopes that predict every later key within
+  epsilon of its position; when the range would be empty a new
+  segment starts.  Duplicates are modelled by their first position.
+
+  The first keys of the segments are indexed the same way, with a
+  small epsilon, level upon level until one segment is left.  A
+  lookup goes down the levels, at each one searching a window of
+  about 2 epsilon + 3 elements around the prediction.  Keys that
+  are not in the array can land outside the window (say after a
+  long run of duplicates); then the search gallops outward from it,
+  so every answer is exact.
+
+  An index takes 16 bytes per segment and does not copy the array,
+  which must not change while the index is used.  Probes of the
+  window searches are counted in searches.learned.probes.
+
+  USAGE: java LearnedIndex [n] [lookups]
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class LearnedIndex {
+    public static final int DEFAULT_EPSILON = 64;
+    // epsilon of the levels above the first
+    private static final int INNER_EPSILON = 4;
+
+    private static final Metrics.Counter probes =
+	Metrics.counter("searches.learned.probes");
+
+    private final int a[];
+    private final int epsilon;
+    private final Level levels[]; // levels[0] indexes a, the last has one segment
+
+    /* segments of one level: first key, its position below, slope */
+    private static final class Level {
+	final int keys[];
+	final int starts[];
+	final double slopes[];
+	final int n;
+
+	Level(int keys[], int starts[], double slopes[], int n) {
+	    this.keys = keys;
+	    this.starts = starts;
+	    this.slopes = slopes;
+	    this.n = n;
+	}
+    }
+
+    public LearnedIndex(int a[]) {
+	this(a, DEFAULT_EPSILON);
+    }
+
+    /**
+       @param a array sorted in increasing order.
+       @param epsilon largest error of a predicted position, at least 1.
+    */
+    public LearnedIndex(int a[], int epsilon) {
+	if (epsilon < 1) throw new IllegalArgumentException("epsilon < 1");
+	this.a = a;
+	this.epsilon = epsilon;
+	List<Level> built = new ArrayList<Level>();
+	if (a.length > 0) {
+	    Level l = build(a, a.length, epsilon);
+	    built.add(l);
+	    while (l.n > 1) {
+		l = build(l.keys, l.n, INNER_EPSILON);
+		built.add(l);
+	    }
+	}
+	levels = built.toArray(new Level[0]);
+    }
+
+    /*
+      Shrinking cone over src[0..n-1].  lo and hi bound the slopes
+      that keep every key so far within eps of its position.
+    */
+    private static Level build(int src[], int n, int eps) {
+	int cap = 16;
+	int keys[] = new int[cap], starts[] = new int[cap];
+	double slopes[] = new double[cap];
+	int m = 0;
+	int k0 = src[0], p0 = 0;
+	double lo = 0, hi = Double.POSITIVE_INFINITY;
+	for (int i = 1; i <= n; i++) {
+	    if (i < n) {
+		if (src[i] == src[i-1]) continue;
+		double dx = (double) ((long) src[i] - k0);
+		double nlo = Math.max(lo, (i - eps - p0) / dx);
+		double nhi = Math.min(hi, (i + eps - p0) / dx);
+		if (nlo <= nhi) {
+		    lo = nlo;
+		    hi = nhi;
+		    continue;
+		}
+	    }
+	    if (m == cap) {
+		cap *= 2;
+		keys = Arrays.copyOf(keys, cap);
+		starts = Arrays.copyOf(starts, cap);
+		slopes = Arrays.copyOf(slopes, cap);
+	    }
+	    keys[m] = k0;
+	    starts[m] = p0;
+	    slopes[m] = hi == Double.POSITIVE_INFINITY ? 0 : (lo + hi) / 2;
+	    m++;
+	    if (i < n) {
+		k0 = src[i];
+		p0 = i;
+		lo = 0;
+		hi = Double.POSITIVE_INFINITY;
+	    }
+	}
+	return new Level(Arrays.copyOf(keys, m), Arrays.copyOf(starts, m),
+			 Arrays.copyOf(slopes, m), m);
+    }
+
+    /** @return the indexed array. */
+    public int[] array() {
+	return a;
+    }
+
+    public int epsilon() {
+	return epsilon;
+    }
+
+    /** @return number of segments over the array itself. */
+    public int segments() {
+	return levels.length == 0 ? 0 : levels[0].n;
+    }
+
+    /** @return number of levels of segments. */
+    public int height() {
+	return levels.length;
+    }
+
+    /** @return bytes of the model: 16 per segment on every level. */
+    public long sizeInBytes() {
+	long bytes = 0;
+	for (Level l : levels) bytes += 16L * l.n;
+	return bytes;
+    }
+
+    /** @return index of the first element of a that is >= x, or a.length. */
+    public int lowerBound(int x) {
+	if (levels.length == 0) return 0;
+	int seg = 0; // segment of the current level holding x
+	for (int lv = levels.length - 1; lv > 0; lv--) {
+	    Level below = levels[lv - 1];
+	    int i = search(below.keys, below.n, x, predict(levels[lv], seg, x, below.n),
+			   INNER_EPSILON);
+	    // last segment starting at or before x
+	    seg = (i < below.n && below.keys[i] == x) ? i : Math.max(0, i - 1);
+	}
+	return search(a, a.length, x, predict(levels[0], seg, x, a.length), epsilon);
+    }
+
+    /** @return true iff x is in the array. */
+    public boolean contains(int x) {
+	int i = lowerBound(x);
+	return i < a.length && a[i] == x;
+    }
+
+    /* position of x predicted by segment j of level l, within [0, len] */
+    private static int predict(Level l, int j, int x, int len) {
+	double p = l.starts[j] + l.slopes[j] * ((long) x - l.keys[j]);
+	if (p <= 0) return 0;
+	if (p >= len) return len;
+	return (int) p;
+    }
+
+    /*
+      First index of arr[0..len-1] with arr[i] >= x, searching the
+      window of eps around pos, or galloping outward if the answer is
+      not in it.
+    */
+    private static int search(int arr[], int len, int x, int pos, int eps) {
+	int lo = Math.max(0, pos - eps - 1), hi = Math.min(len, pos + eps + 2);
+	int n = 2;
+	for (int step = eps + 1; lo > 0 && arr[lo - 1] >= x; step *= 2, n++) {
+	    hi = lo - 1;
+	    lo = Math.max(0, lo - step);
+	}
+	for (int step = eps + 1; hi < len && arr[hi] < x; step *= 2, n++) {
+	    lo = hi + 1;
+	    hi = (int) Math.min(len, (long) hi + step);
+	}
+	// now the answer is in [lo, hi]
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    n++;
+	    if (arr[mid] < x) lo = mid + 1;
+	    else hi = mid;
+	}
+	probes.add(n);
+	return lo;
+    }
+
+    /* first index with a[i] >= x, by binary search */
+    private static int expected(int a[], int x) {
+	int lo = 0, hi = a.length;
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (a[mid] < x) lo = mid + 1;
+	    else hi = mid;
+	}
+	return lo;
+    }
+
+    /*
+      Check lower bounds against binary search on every Workload kind,
+      then time lookups of random keys against Searches.binarySearch
+      for a few epsilons, with the size of each model.
+    */
+    public static void main(String[] args) {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+	int m = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+	Random rand = new Random(42);
+
+	for (String kind : Workload.KINDS) {
+	    int data[] = new Workload(7).generate(kind, 200_000);
+	    Arrays.sort(data);
+	    for (int eps : new int[] {1, 8, 64}) {
+		LearnedIndex index = new LearnedIndex(data, eps);
+		for (int i = 0; i < 200_000; i++) {
+		    int x = (i % 2 == 0) ? data[rand.nextInt(data.length)]
+			: (i % 4 == 1) ? rand.nextInt() : data[rand.nextInt(data.length)] + 1;
+		    if (index.lowerBound(x) != expected(data, x)) {
+			System.out.println("Failed learned index test " + kind + " eps " + eps);
+			System.exit(-1);
+		    }
+		}
+		if (index.lowerBound(Integer.MIN_VALUE) != 0
+		    || index.lowerBound(Integer.MAX_VALUE) != expected(data, Integer.MAX_VALUE)) {
+		    System.out.println("Failed learned index bounds test " + kind);
+		    System.exit(-1);
+		}
+	    }
+	}
+	if (new LearnedIndex(new int[0]).contains(0) || !new LearnedIndex(new int[] {5}).contains(5)) {
+	    System.out.println("Failed learned index edge test");
+	    System.exit(-1);
+	}
+
+	int data[] = new Workload(42).uniform(n, Integer.MAX_VALUE);
+	Sorts.parallelRadixSort(data);
+	int queries[] = new int[m];
+	for (int i = 0; i < m; i++)
+	    queries[i] = (i % 2 == 0) ? data[rand.nextInt(n)] : rand.nextInt(Integer.MAX_VALUE);
+	System.out.printf("%d sorted keys (%d MB), %d lookups, ns/lookup%n", n,
+			  4L * n >> 20, m);
+	System.out.printf("%-10s %8s %10s %12s %8s%n", "search", "ns", "segments",
+			  "model bytes", "% data");
+	for (int round = 0; round < 2; round++) {
+	    long t0 = System.nanoTime(), hits = 0;
+	    for (int q : queries) if (Searches.binarySearch(q, data)) hits++;
+	    long t1 = System.nanoTime();
+	    System.out.printf("%-10s %8.1f%n", "binary", (double) (t1 - t0) / m);
+	    for (int eps : new int[] {16, 64, 256}) {
+		LearnedIndex index = new LearnedIndex(data, eps);
+		long t2 = System.nanoTime(), h = 0;
+		for (int q : queries) if (index.contains(q)) h++;
+		long t3 = System.nanoTime();
+		if (h != hits) {
+		    System.out.println("Failed learned lookup test");
+		    System.exit(-1);
+		}
+		System.out.printf("%-10s %8.1f %10d %12d %8.3f%n", "eps=" + eps,
+				  (double) (t3 - t2) / m, index.segments(), index.sizeInBytes(),
+				  100.0 * index.sizeInBytes() / (4.0 * n));
+	    }
+	}
+    }
+}
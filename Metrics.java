@@ -0,0 +1,373 @@
+/*
+  Registry of named counters and latency histograms.
+
+  Counters are LongAdders, so threads can bump them without losing
+  updates.  Histograms keep log-linear buckets in the style of
+  HdrHistogram: 32 buckets per power of two, about 3% precision.
+
+  Everything is switched off unless the JVM is started with
+  -Dmetrics.enabled=true.  ENABLED is a static final, so when it is
+  false the JIT folds every increment and record away.
+
+  Typical use:
+
+      static final Metrics.Counter PROBES = Metrics.counter("x.probes");
+      ...
+      PROBES.increment();
+      ...
+      System.out.print(Metrics.snapshot().toText());
+
+  A Scope collects what the current thread records between its
+  creation and close(), for per-call or per-thread numbers:
+
+      try (Metrics.Scope s = Metrics.scope()) {
+          Sorts.quickSort(a);
+          System.out.println(s.snapshot().toJson());
+      }
+*/
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("metrics.enabled");
+
+    private static final ConcurrentHashMap<String, Counter> counters =
+	new ConcurrentHashMap<String, Counter>();
+    private static final ConcurrentHashMap<String, Histogram> histograms =
+	new ConcurrentHashMap<String, Histogram>();
+    // registration order, so scopes can index by id
+    private static final ArrayList<Counter> counterList = new ArrayList<Counter>();
+    private static final ArrayList<Histogram> histogramList = new ArrayList<Histogram>();
+
+    // innermost open scope of each thread
+    private static final ThreadLocal<Scope> current = new ThreadLocal<Scope>();
+
+    private Metrics() { }
+
+    /** @return the counter with this name, created on first use. */
+    public static Counter counter(String name) {
+	return counters.computeIfAbsent(name, n -> {
+	    synchronized (counterList) {
+		Counter c = new Counter(n, counterList.size());
+		counterList.add(c);
+		return c;
+	    }
+	});
+    }
+
+    /** @return the histogram with this name, created on first use. */
+    public static Histogram histogram(String name) {
+	return histograms.computeIfAbsent(name, n -> {
+	    synchronized (histogramList) {
+		Histogram h = new Histogram(n, histogramList.size());
+		histogramList.add(h);
+		return h;
+	    }
+	});
+    }
+
+    /** @return System.nanoTime() if metrics are enabled, else 0. */
+    public static long now() {
+	return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /** Start collecting this thread's updates until the scope is closed. */
+    public static Scope scope() {
+	Scope s = new Scope(current.get());
+	current.set(s);
+	return s;
+    }
+
+    /** @return current values of every counter and histogram. */
+    public static Snapshot snapshot() {
+	Snapshot s = new Snapshot();
+	for (Counter c : counters.values()) s.counters.put(c.name, c.sum());
+	for (Histogram h : histograms.values())
+	    s.histograms.put(h.name, h.buckets.snapshot());
+	return s;
+    }
+
+    /** Zero every counter and histogram. */
+    public static void reset() {
+	for (Counter c : counters.values()) c.reset();
+	for (Histogram h : histograms.values()) h.reset();
+    }
+
+    /** A named count of events, such as comparisons or swaps. */
+    public static final class Counter {
+	private final String name;
+	private final int id;
+	private final LongAdder adder = new LongAdder();
+
+	private Counter(String name, int id) {
+	    this.name = name;
+	    this.id = id;
+	}
+
+	public void increment() {
+	    add(1);
+	}
+
+	public void add(long n) {
+	    if (!ENABLED) return;
+	    adder.add(n);
+	    for (Scope s = current.get(); s != null; s = s.parent) s.add(id, n);
+	}
+
+	public long sum() {
+	    return adder.sum();
+	}
+
+	public void reset() {
+	    adder.reset();
+	}
+
+	public String name() {
+	    return name;
+	}
+    }
+
+    /** A named distribution of non-negative values, usually nanoseconds. */
+    public static final class Histogram {
+	private final String name;
+	private final int id;
+	private final Buckets buckets = new Buckets();
+
+	private Histogram(String name, int id) {
+	    this.name = name;
+	    this.id = id;
+	}
+
+	public void record(long value) {
+	    if (!ENABLED) return;
+	    buckets.record(value);
+	    for (Scope s = current.get(); s != null; s = s.parent) s.record(id, value);
+	}
+
+	/** Record the time since start, a value returned by Metrics.now(). */
+	public void recordSince(long start) {
+	    if (!ENABLED) return;
+	    record(System.nanoTime() - start);
+	}
+
+	public void reset() {
+	    buckets.reset();
+	}
+
+	public String name() {
+	    return name;
+	}
+    }
+
+    /**
+       A histogram that is always on and belongs to no registry, for
+       tools that report their own latencies whether or not metrics
+       are enabled.  Not thread safe to read while recording.
+    */
+    public static final class Recorder {
+	private final Buckets buckets = new Buckets();
+
+	public void record(long value) {
+	    buckets.record(value);
+	}
+
+	public HistogramSnapshot snapshot() {
+	    return buckets.snapshot();
+	}
+    }
+
+    /*
+      Log-linear buckets.  Values below 32 get a bucket each; above
+      that, each power of two is split into 32 equal buckets.
+    */
+    private static final class Buckets {
+	static final int SUB_BITS = 5;
+	static final int SUB = 1 << SUB_BITS;
+	static final int NBUCKETS = (64 - SUB_BITS) * SUB;
+
+	final AtomicLongArray counts = new AtomicLongArray(NBUCKETS);
+	final LongAdder count = new LongAdder();
+	final LongAdder sum = new LongAdder();
+	final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	static int index(long v) {
+	    if (v < SUB) return (int) Math.max(v, 0);
+	    int exp = 63 - Long.numberOfLeadingZeros(v);
+	    int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+	    return (exp - SUB_BITS + 1) * SUB + sub;
+	}
+
+	/* smallest value that falls in bucket i */
+	static long lowest(int i) {
+	    if (i < SUB) return i;
+	    int exp = i / SUB + SUB_BITS - 1;
+	    return (long) (SUB + i % SUB) << (exp - SUB_BITS);
+	}
+
+	void record(long v) {
+	    counts.incrementAndGet(index(v));
+	    count.increment();
+	    sum.add(v);
+	    max.accumulate(v);
+	}
+
+	void reset() {
+	    for (int i = 0; i < NBUCKETS; i++) counts.set(i, 0);
+	    count.reset();
+	    sum.reset();
+	    max.reset();
+	}
+
+	HistogramSnapshot snapshot() {
+	    long c[] = new long[NBUCKETS];
+	    for (int i = 0; i < NBUCKETS; i++) c[i] = counts.get(i);
+	    return new HistogramSnapshot(c, count.sum(), sum.sum(), max.get());
+	}
+    }
+
+    /**
+       Updates made by one thread while the scope is open.  Scopes
+       nest; an update counts in every open scope of the thread.
+    */
+    public static final class Scope implements AutoCloseable {
+	private final Scope parent;
+	private final Thread owner = Thread.currentThread();
+	private long counts[] = new long[16];
+	private Buckets hists[] = new Buckets[4];
+
+	private Scope(Scope parent) {
+	    this.parent = parent;
+	}
+
+	private void add(int id, long n) {
+	    if (id >= counts.length)
+		counts = java.util.Arrays.copyOf(counts, Math.max(id + 1, 2 * counts.length));
+	    counts[id] += n;
+	}
+
+	private void record(int id, long v) {
+	    if (id >= hists.length)
+		hists = java.util.Arrays.copyOf(hists, Math.max(id + 1, 2 * hists.length));
+	    if (hists[id] == null) hists[id] = new Buckets();
+	    hists[id].record(v);
+	}
+
+	/** @return what this scope has collected so far. */
+	public Snapshot snapshot() {
+	    Snapshot s = new Snapshot();
+	    synchronized (counterList) {
+		for (int i = 0; i < counts.length && i < counterList.size(); i++)
+		    if (counts[i] != 0) s.counters.put(counterList.get(i).name, counts[i]);
+	    }
+	    synchronized (histogramList) {
+		for (int i = 0; i < hists.length && i < histogramList.size(); i++)
+		    if (hists[i] != null)
+			s.histograms.put(histogramList.get(i).name, hists[i].snapshot());
+	    }
+	    return s;
+	}
+
+	/** Stop collecting.  Must be called by the thread that opened it. */
+	public void close() {
+	    if (Thread.currentThread() != owner)
+		throw new IllegalStateException("Scope closed by another thread");
+	    if (current.get() == this) current.set(parent);
+	}
+    }
+
+    /** Percentiles and totals of a histogram at one point in time. */
+    public static final class HistogramSnapshot {
+	private final long counts[];
+	private final long count, sum, max;
+
+	private HistogramSnapshot(long counts[], long count, long sum, long max) {
+	    this.counts = counts;
+	    this.count = count;
+	    this.sum = sum;
+	    this.max = max;
+	}
+
+	public long count() { return count; }
+	public long max() { return max; }
+	public double mean() { return count == 0 ? 0 : (double) sum / count; }
+
+	/** @return the value below which a fraction p of the values fall. */
+	public long percentile(double p) {
+	    if (count == 0) return 0;
+	    long rank = (long) Math.ceil(p * count);
+	    if (rank < 1) rank = 1;
+	    long seen = 0;
+	    for (int i = 0; i < counts.length; i++) {
+		seen += counts[i];
+		if (seen >= rank) return Math.min(Buckets.lowest(i), max);
+	    }
+	    return max;
+	}
+    }
+
+    /** Values of a set of counters and histograms, sorted by name. */
+    public static final class Snapshot {
+	private final TreeMap<String, Long> counters = new TreeMap<String, Long>();
+	private final TreeMap<String, HistogramSnapshot> histograms =
+	    new TreeMap<String, HistogramSnapshot>();
+
+	public Map<String, Long> counters() { return counters; }
+	public Map<String, HistogramSnapshot> histograms() { return histograms; }
+
+	/** @return value of the named counter, 0 if it was never bumped. */
+	public long get(String name) {
+	    Long v = counters.get(name);
+	    return v == null ? 0 : v;
+	}
+
+	/** @return one "name value" line per counter and histogram. */
+	public String toText() {
+	    StringBuilder b = new StringBuilder();
+	    for (Map.Entry<String, Long> e : counters.entrySet())
+		b.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+	    for (Map.Entry<String, HistogramSnapshot> e : histograms.entrySet()) {
+		HistogramSnapshot h = e.getValue();
+		b.append(String.format("%s count=%d mean=%.1f p50=%d p90=%d p99=%d p999=%d max=%d%n",
+				       e.getKey(), h.count(), h.mean(), h.percentile(0.5),
+				       h.percentile(0.9), h.percentile(0.99),
+				       h.percentile(0.999), h.max()));
+	    }
+	    return b.toString();
+	}
+
+	/** @return the snapshot as a JSON object. */
+	public String toJson() {
+	    StringBuilder b = new StringBuilder("{\"counters\":{");
+	    String sep = "";
+	    for (Map.Entry<String, Long> e : counters.entrySet()) {
+		b.append(sep).append(quote(e.getKey())).append(':').append(e.getValue());
+		sep = ",";
+	    }
+	    b.append("},\"histograms\":{");
+	    sep = "";
+	    for (Map.Entry<String, HistogramSnapshot> e : histograms.entrySet()) {
+		HistogramSnapshot h = e.getValue();
+		b.append(sep).append(quote(e.getKey()))
+		    .append(":{\"count\":").append(h.count())
+		    .append(",\"mean\":").append(h.mean())
+		    .append(",\"p50\":").append(h.percentile(0.5))
+		    .append(",\"p90\":").append(h.percentile(0.9))
+		    .append(",\"p99\":").append(h.percentile(0.99))
+		    .append(",\"p999\":").append(h.percentile(0.999))
+		    .append(",\"max\":").append(h.max()).append('}');
+		sep = ",";
+	    }
+	    return b.append("}}").toString();
+	}
+
+	private static String quote(String s) {
+	    return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+    }
+}
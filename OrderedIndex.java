@@ -0,0 +1,26 @@
+import java.io.PrintStream;
+
+/**
+   An ordered collection of keys that may hold duplicates: the
+   contract RunBST and the benchmarks drive, so one index can be
+   swapped for another.
+
+   @see BinarySearchTree
+   @see BPlusTree
+*/
+public interface OrderedIndex<TYPE> {
+    /** Adds an element; equal elements are kept side by side. */
+    void addElement(TYPE o);
+
+    /** Return an element equivalent to o, or null if there is none. */
+    TYPE getElement(TYPE o);
+
+    /** Remove one element equivalent to o and return it, or null. */
+    TYPE removeElement(TYPE o);
+
+    /** Print the elements in order, separated by spaces. */
+    void inOrder(PrintStream out);
+
+    /** @return number of elements. */
+    int size();
+}
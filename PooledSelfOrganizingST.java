@@ -0,0 +1,291 @@
+/**
+ *  A {@code SelfOrganizingST} whose entries live in parallel arrays
+ *  instead of node objects: slot i holds {@code keys[i]},
+ *  {@code vals[i]} and the index {@code next[i]} of the following
+ *  entry.  Slot 0 is the sentinel.  Deleted slots go on a free list
+ *  (linked through {@code next}) and are reused by later puts, so a
+ *  table whose size stays about the same allocates nothing, and
+ *  move-to-front is three int writes.
+ *
+ *  <p> An entry costs two references and an int in the arrays, about
+ *  half of a {@code SelfOrganizingST.Node} with its object header and
+ *  outer reference.  The arrays grow by doubling and never shrink.
+ *
+ *  <p> Otherwise it behaves exactly like {@code SelfOrganizingST}:
+ *  the most recently used key is first, get and put move the key
+ *  they touch to the front, and a null value deletes.
+ *
+ *  USAGE: java PooledSelfOrganizingST [n] [ops]
+ */
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+
+public class PooledSelfOrganizingST<Key, Value> {
+    private static final int NIL = -1;     // end of the free list
+
+    private int n;              // number of key-value pairs
+    private Object keys[];      // keys[0] is the sentinel's
+    private Object vals[];
+    private int next[];         // next slot in the list, or on the free list
+    private int free = NIL;     // first free slot
+    private int top = 1;        // slots at or above top were never used
+
+    /**
+     * Initializes an empty symbol table.
+     */
+    public PooledSelfOrganizingST() {
+	this(16);
+    }
+
+    /**
+     * Initializes an empty symbol table with room for capacity
+     * pairs before its arrays grow.
+     * @param capacity the initial capacity
+     */
+    public PooledSelfOrganizingST(int capacity) {
+	int c = Math.max(2, capacity + 1);
+	keys = new Object[c];
+	vals = new Object[c];
+	next = new int[c];
+	next[0] = 0; // circular list with sentinel slot 0
+    }
+
+    /**
+     * Returns the number of key-value pairs in this symbol table.
+     * @return the number of key-value pairs in this symbol table
+     */
+    public int size() {
+	return n;
+    }
+
+    /**
+     * Is this symbol table empty?
+     * @return {@code true} if this symbol table is empty and {@code
+     * false} otherwise
+     */
+    public boolean isEmpty() {
+	return size() == 0;
+    }
+
+    /**
+     * Does this symbol table contain the given key?
+     * @param key the key
+     * @return {@code true} if this symbol table contains {@code key} and
+     *     {@code false} otherwise
+     */
+    public boolean contains(Key key) {
+	return get(key) != null;
+    }
+
+    /*
+      Slot before the one holding key, or before the sentinel if key
+      is not there.  The sentinel's key guarantees we stop.
+    */
+    private int findPrev(Key key) {
+	keys[0] = key;
+	int prev = 0, curr = next[0];
+	while (!keys[curr].equals(key)) {
+	    prev = curr;
+	    curr = next[curr];
+	}
+	keys[0] = null; // no loitering
+	return prev;
+    }
+
+    /* move slot curr, which follows prev, to the front */
+    private void moveToFront(int prev, int curr) {
+	if (prev == 0) return;
+	next[prev] = next[curr];
+	next[curr] = next[0];
+	next[0] = curr;
+    }
+
+    /**
+     * Returns the value associated with the given key, and moves the
+     * key to the front.
+     * @param key the key
+     * @return the value associated with the given key if the key is
+     *     in the symbol table and {@code null} if the key is not in
+     *     the symbol table
+     */
+    @SuppressWarnings("unchecked")
+    public Value get(Key key) {
+	int prev = findPrev(key), curr = next[prev];
+	if (curr == 0) return null; // not found
+	moveToFront(prev, curr);
+	return (Value) vals[curr];
+    }
+
+    /**
+     * Inserts the key-value pair into the symbol table at the front,
+     * overwriting the old value with the new value if the key is
+     * already in the symbol table.  If the value is {@code null},
+     * this effectively deletes the key from the symbol table.
+     * @param key the key
+     * @param val the value
+     */
+    public void put(Key key, Value val) {
+	if (val == null) {
+	    delete(key);
+	    return;
+	}
+	int prev = findPrev(key), curr = next[prev];
+	if (curr == 0) { // new key, in a free slot at the front
+	    int i = allocate();
+	    keys[i] = key;
+	    vals[i] = val;
+	    next[i] = next[0];
+	    next[0] = i;
+	    n++;
+	}
+	else {
+	    vals[curr] = val;
+	    moveToFront(prev, curr);
+	}
+    }
+
+    /**
+     * Removes the key and associated value from the symbol table
+     * (if the key is in the symbol table).
+     * @param key the key
+     */
+    public void delete(Key key) {
+	if (size() == 0) return;
+	int prev = findPrev(key), curr = next[prev];
+	if (curr == 0) return; // key not found
+	next[prev] = next[curr];
+	keys[curr] = vals[curr] = null;
+	next[curr] = free;
+	free = curr;
+	n--;
+    }
+
+    /* a free slot, from the free list if possible */
+    private int allocate() {
+	if (free != NIL) {
+	    int i = free;
+	    free = next[i];
+	    return i;
+	}
+	if (top == keys.length) {
+	    int c = 2 * keys.length;
+	    keys = Arrays.copyOf(keys, c);
+	    vals = Arrays.copyOf(vals, c);
+	    next = Arrays.copyOf(next, c);
+	}
+	return top++;
+    }
+
+    /**
+     * Returns all keys in the symbol table as an {@code Iterable},
+     * most recently used first.
+     * @return all keys in the symbol table as an {@code Iterable}
+     */
+    @SuppressWarnings("unchecked")
+    public Iterable<Key> keys() {
+	LinkedList<Key> list = new LinkedList<Key>();
+	for (int curr = next[0]; curr != 0; curr = next[curr])
+	    list.add((Key) keys[curr]);
+	return list;
+    }
+
+    /* bytes allocated so far by this thread, 0 if the JVM can't tell */
+    private static long allocatedBytes() {
+	java.lang.management.ThreadMXBean t = ManagementFactory.getThreadMXBean();
+	if (t instanceof com.sun.management.ThreadMXBean)
+	    return ((com.sun.management.ThreadMXBean) t)
+		.getThreadAllocatedBytes(Thread.currentThread().getId());
+	return 0;
+    }
+
+    /*
+      Check against SelfOrganizingST with random puts, gets and
+      deletes, then time a churning table (delete a key, put another)
+      with both and report bytes allocated per operation.
+    */
+    public static void main(String[] args) {
+	int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+	int ops = args.length > 1 ? Integer.parseInt(args[1]) : 300_000;
+	Random rand = new Random(42);
+
+	PooledSelfOrganizingST<Integer, Integer> pooled =
+	    new PooledSelfOrganizingST<Integer, Integer>(4);
+	SelfOrganizingST<Integer, Integer> plain = new SelfOrganizingST<Integer, Integer>();
+	for (int i = 0; i < 200_000; i++) {
+	    Integer k = rand.nextInt(500);
+	    int op = rand.nextInt(4);
+	    boolean ok = true;
+	    if (op == 0) {
+		pooled.put(k, i);
+		plain.put(k, i);
+	    }
+	    else if (op == 1) {
+		Integer a = pooled.get(k), b = plain.get(k);
+		ok = a == null ? b == null : a.equals(b);
+	    }
+	    else if (op == 2) {
+		pooled.delete(k);
+		plain.delete(k);
+	    }
+	    else {
+		pooled.put(k, null);
+		plain.put(k, null);
+	    }
+	    if (!ok || pooled.size() != plain.size()) {
+		System.out.println("Failed pooled table test at op " + i);
+		System.exit(-1);
+	    }
+	}
+	if (!pooled.keys().equals(plain.keys())) {
+	    System.out.println("Failed pooled table key order test");
+	    System.exit(-1);
+	}
+
+	// churn: each op deletes a key and puts a new one, size stays put
+	Integer pool[] = new Integer[2 * size];
+	for (int i = 0; i < pool.length; i++) pool[i] = i;
+	System.out.printf("churn of %d ops on %d keys%n", ops, size);
+	System.out.printf("%-6s %10s %10s %10s %10s%n", "round", "plain ns", "B/op",
+			  "pooled ns", "B/op");
+	for (int round = 0; round < 3; round++) {
+	    double result[] = new double[4];
+	    for (int which = 0; which < 2; which++) {
+		PooledSelfOrganizingST<Integer, Integer> p =
+		    new PooledSelfOrganizingST<Integer, Integer>(size);
+		SelfOrganizingST<Integer, Integer> s = new SelfOrganizingST<Integer, Integer>();
+		for (int i = 0; i < size; i++) {
+		    if (which == 0) s.put(pool[i], i);
+		    else p.put(pool[i], i);
+		}
+		// slot j holds key j or key j + size; each op swaps one
+		boolean high[] = new boolean[size];
+		Random r = new Random(round);
+		long b0 = allocatedBytes(), t0 = System.nanoTime();
+		for (int i = 0; i < ops; i++) {
+		    int j = r.nextInt(size);
+		    Integer out = pool[high[j] ? j + size : j], in = pool[high[j] ? j : j + size];
+		    high[j] = !high[j];
+		    if (which == 0) {
+			s.delete(out);
+			s.put(in, in);
+		    }
+		    else {
+			p.delete(out);
+			p.put(in, in);
+		    }
+		}
+		long t1 = System.nanoTime(), b1 = allocatedBytes();
+		result[2 * which] = (double) (t1 - t0) / ops;
+		result[2 * which + 1] = (double) (b1 - b0) / ops;
+		if ((which == 0 ? s.size() : p.size()) != size) {
+		    System.out.println("Failed churn test");
+		    System.exit(-1);
+		}
+	    }
+	    System.out.printf("%-6d %10.1f %10.1f %10.1f %10.1f%n", round,
+			      result[0], result[1], result[2], result[3]);
+	}
+    }
+}
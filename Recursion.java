@@ -1,26 +1,285 @@
 
+import java.util.Arrays;
+import java.util.Random;
+
 public class  Recursion {
     /* Print for those with sore fingers. */
-    public static void p(String s) {  
-      System.out.println(s); 
+    public static void p(String s) {
+      System.out.println(s);
     }
-    
-    public boolean isEven(int n){
-      return isOdd(n)==false && n%2==0;
-  
 
+    /*
+      A small engine for mutually recursive predicates over ints.
+
+      A rule set numbers its rules 0, 1, ... and says, for rule fn
+      applied to n, either what the answer is or which rule to call
+      next (a tail call).  run() follows the calls in a loop, a
+      trampoline, so the Java stack never grows however long the
+      chain of calls is.  Steps are encoded in a long so following
+      a call allocates nothing.
+
+      Every call in a chain of tail calls has the same answer as the
+      first, so run() can remember the calls it passed through in a
+      Memo and stop early the next time it reaches one.
+    */
+
+    /** One step of a rule set: returns done(b) or call(fn, n). */
+    public interface Rules {
+      long step(int fn, int n);
     }
 
-    public boolean isOdd(int n){
+    private static final long DONE = 1L << 63;
+
+    /** Step result: the answer is b. */
+    public static long done(boolean b) {
+      return DONE | (b ? 1 : 0);
+    }
+
+    /** Step result: the answer is that of rule fn applied to n. */
+    public static long call(int fn, int n) {
+      return ((long) fn << 32) | (n & 0xffffffffL);
+    }
 
-        return isEven(n)==false;
+    /**
+       Evaluate rule fn of rules on n.
+       @param memo remembered answers, or null for none.
+    */
+    public static boolean run(Rules rules, int fn, int n, Memo memo) {
+      int[] seen = null; // (fn, n) pairs to remember, interleaved
+      int nseen = 0;
+      long steps = 0;
+      long every = memo == null ? 0 : memo.checkpointEvery;
+      long r = call(fn, n);
+      while (true) {
+        fn = (int) (r >>> 32);
+        n = (int) r;
+        if (memo != null) {
+          int known = memo.get(fn, n);
+          if (known >= 0) { r = done(known == 1); break; }
+          // remember the first call and every every-th one; if a long
+          // chain gives more than the memo can hold, keep every other
+          if (steps % every == 0) {
+            if (nseen >= 2 * memo.maxEntries) {
+              for (int i = 0; i < nseen; i += 4) {
+                seen[i/2] = seen[i];
+                seen[i/2 + 1] = seen[i+1];
+              }
+              nseen = (nseen + 2) / 4 * 2;
+              every *= 2;
+            }
+            if (steps % every == 0) {
+              if (seen == null) seen = new int[16];
+              else if (nseen == seen.length) seen = Arrays.copyOf(seen, 2 * nseen);
+              seen[nseen++] = fn;
+              seen[nseen++] = n;
+            }
+          }
+        }
+        r = rules.step(fn, n);
+        steps++;
+        if ((r & DONE) != 0) break;
+      }
+      boolean result = (r & 1) != 0;
+      for (int i = 0; i < nseen; i += 2) memo.put(seen[i], seen[i+1], result);
+      return result;
     }
 
+    /**
+       Answers of (rule, int) calls, in one open addressing table per
+       rule with primitive int keys.  Holds at most maxEntries answers
+       per rule; later ones are dropped.
+    */
+    public static class Memo {
+      private final int[][] keys;
+      private final byte[][] vals; // 0 empty, 1 false, 2 true
+      private final int[] sizes;
+      private final int maxEntries;
+      private final int shift; // 32 - log2 of the table capacity
+      final int checkpointEvery;
+      private long hits, misses, probes;
+
+      /**
+         @param nrules number of rules in the rule set, at least 1.
+         @param maxEntries most answers kept per rule, 1 to 2^28.
+         @param checkpointEvery run() remembers every this many
+         calls of a chain (and its first call), at least 1.
+      */
+      public Memo(int nrules, int maxEntries, int checkpointEvery) {
+        if (nrules < 1 || maxEntries < 1 || maxEntries > 1 << 28 || checkpointEvery < 1)
+          throw new IllegalArgumentException("bad memo parameters");
+        int cap = Integer.highestOneBit(Math.max(2, maxEntries) * 2 - 1) * 2;
+        keys = new int[nrules][cap];
+        vals = new byte[nrules][cap];
+        sizes = new int[nrules];
+        shift = 32 - Integer.numberOfTrailingZeros(cap);
+        this.maxEntries = maxEntries;
+        this.checkpointEvery = checkpointEvery;
+      }
+
+      /*
+        Slot of n in table fn: its own or the empty one to use.  The
+        home slot is the top log2(capacity) bits of n times 2^32 / phi
+        (Fibonacci hashing), which spreads keys a power of two apart,
+        as run() remembers them, evenly over the whole table.
+      */
+      private int slot(int fn, int n) {
+        int mask = keys[fn].length - 1;
+        int i = (n * 0x9E3779B9) >>> shift;
+        probes++;
+        while (vals[fn][i] != 0 && keys[fn][i] != n) {
+          i = (i + 1) & mask;
+          probes++;
+        }
+        return i;
+      }
+
+      /** @return 1 (true), 0 (false) or -1 (unknown). */
+      public int get(int fn, int n) {
+        int i = slot(fn, n);
+        if (vals[fn][i] == 0) { misses++; return -1; }
+        hits++;
+        return vals[fn][i] - 1;
+      }
+
+      public void put(int fn, int n, boolean b) {
+        int i = slot(fn, n);
+        if (vals[fn][i] == 0) {
+          if (sizes[fn] >= maxEntries) return;
+          sizes[fn]++;
+          keys[fn][i] = n;
+        }
+        vals[fn][i] = (byte) (b ? 2 : 1);
+      }
+
+      public long hits() { return hits; }
+      public long misses() { return misses; }
+      /** @return slots looked at by gets and puts so far. */
+      public long probes() { return probes; }
+      public double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+      }
+    }
+
+    private static final int EVEN = 0, ODD = 1;
+
+    /* n is even iff n-1 is odd; steps toward 0 so negatives work too */
+    private static final Rules PARITY = (fn, n) -> {
+      if (n == 0) return done(fn == EVEN);
+      int next = n > 0 ? n - 1 : n + 1;
+      return call(fn == EVEN ? ODD : EVEN, next);
+    };
 
+    private final Memo memo = new Memo(2, 1 << 16, 1 << 12);
+
+    public boolean isEven(int n){
+      return run(PARITY, EVEN, n, memo);
+    }
+
+    public boolean isOdd(int n){
+      return run(PARITY, ODD, n, memo);
+    }
+
+    /*
+      Show that the trampoline runs in constant stack depth, compare
+      it with plain recursion, and report memo hit rates for random
+      calls in -range..range.  With -full also check the ends of the
+      int range, about 2^31 steps each.
+      USAGE: java Recursion [calls] [range] [-full]
+    */
     public static void main(String[] args) {
-   
+      int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+      int range = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 24;
+      boolean full = args.length > 2 && args[2].equals("-full");
+
+      // plain mutual recursion: how deep before the stack runs out?
+      int depth = 1;
+      try {
+        while (true) { naiveEven(depth); depth *= 2; }
+      } catch (StackOverflowError e) {
+        p("Plain recursion overflows the stack by n = " + depth);
+      }
+
+      // stack depth seen inside the rules at the start and the end
+      int[] stack = new int[2];
+      Rules probe = (fn, n) -> {
+        if (n == 1_000_000 || n == 1) {
+          stack[n == 1 ? 1 : 0] = Thread.currentThread().getStackTrace().length;
+        }
+        return PARITY.step(fn, n);
+      };
+      run(probe, EVEN, 1_000_000, null);
+      p("Trampoline stack depth after 0 and 999999 calls: " + stack[0] + ", " + stack[1]);
+
+      Recursion r = new Recursion();
+      if (full) {
+        long t0 = System.nanoTime();
+        boolean b = r.isEven(Integer.MAX_VALUE) || !r.isOdd(Integer.MAX_VALUE)
+          || !r.isEven(Integer.MIN_VALUE) || r.isOdd(Integer.MIN_VALUE);
+        p("Ends of the int range " + (b ? "FAILED" : "ok") + " in "
+          + (System.nanoTime() - t0) / 1e6 + " ms");
+        if (b) System.exit(-1);
+      }
+
+      // run() thins the calls it remembers from a long chain to ones a
+      // large power of two apart.  Fill a memo with such keys, then
+      // run a second chain whose every lookup misses among them.
+      Rules stride = (fn, n) ->
+        n < 1 << 15 ? done((n & 1) == 0) : call(fn, n - (1 << 15));
+      Memo big = new Memo(1, 1 << 16, 1);
+      long t0 = System.nanoTime();
+      if (run(stride, 0, Integer.MAX_VALUE, big) || !run(stride, 0, Integer.MAX_VALUE - 1, big)) {
+        p("Failed memo reuse test");
+        System.exit(-1);
+      }
+      double perLookup = (double) big.probes() / (big.hits() + big.misses());
+      p(String.format("Two chains of 2^16 calls on one memo in %.1f ms,"
+                      + " %.2f probes per lookup",
+                      (System.nanoTime() - t0) / 1e6, perLookup));
+      if (perLookup > 4) {
+        p("Failed memo probe test");
+        System.exit(-1);
+      }
+
+      t0 = System.nanoTime();
+      r.isEven(range);
+      r.isEven(-range);
+      p("Cold isEven(" + range + ") and isEven(-" + range + ") in "
+        + (System.nanoTime() - t0) / 1e6 + " ms");
+
+      Random rand = new Random(42);
+      int[] keys = new int[calls];
+      for (int i = 0; i < calls; i++) keys[i] = rand.nextInt(2 * range + 1) - range;
+
+      long before = r.memo.hits(), beforeMiss = r.memo.misses();
+      t0 = System.nanoTime();
+      for (int n : keys) {
+        if (r.isEven(n) != (n % 2 == 0) || r.isOdd(n) != (n % 2 != 0)) {
+          p("Failed parity test " + n);
+          System.exit(-1);
+        }
+      }
+      long t1 = System.nanoTime();
+      long h = r.memo.hits() - before, m = r.memo.misses() - beforeMiss;
+      // at most one hit per call: the one that ends it
+      p(String.format("%d memoized calls in %.1f ms, %.1f%% answered from the memo,"
+                      + " %.0f lookups per call",
+                      2 * calls, (t1 - t0) / 1e6, 100.0 * h / (2 * calls),
+                      (double) (h + m) / (2 * calls)));
+
+      t0 = System.nanoTime();
+      for (int i = 0; i < Math.min(calls, 100); i++) run(PARITY, EVEN, keys[i], null);
+      t1 = System.nanoTime();
+      p(String.format("%d calls without memo in %.1f ms",
+                      Math.min(calls, 100), (t1 - t0) / 1e6));
     }
 
+    // the original definition, for comparison
+    private static boolean naiveEven(int n) {
+      return n == 0 || naiveOdd(n - 1);
+    }
 
+    private static boolean naiveOdd(int n) {
+      return n != 0 && naiveEven(n - 1);
+    }
 
-}
\ No newline at end of file
+}
@@ -1,17 +1,73 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.io.*;
 
 
 /**
    This application permits the user to interactively construct, view,
    and destroy a binary search tree.  This BST permits duplicate keys.
+
+   With -batch it instead runs a script of commands without any
+   display and reports ops/sec and latency percentiles per command,
+   for load testing trees.  A script is whitespace separated: a
+   command word (add, find, delete, print, new, or just their first
+   letter) followed by any number of keys or ranges lo..hi, e.g.
+
+       add 1..1000000
+       find 5 17 -3
+       delete 1..1000000
+       # comments run to the end of the line
+
+   A script can also be compiled to a binary op log, which is read
+   back faster.  Ops are parsed in batches of BATCH.  -tree picks the
+   index the batch runs on: bst (default), mbst (bst counting
+   duplicates in one node), splay, balanced (weight-balanced, also
+   counting duplicates) or bplus.
+
+   USAGE: java RunBST
+   USAGE: java RunBST -batch script_or_log_or_- [-tree bst|mbst|splay|balanced|bplus]
+   USAGE: java RunBST -compile script log
    @author: S. Anderson
 */
 public class RunBST {
+    static final int MAX_FPS = 30; // most repaints per second
+
     private static String initMessage =
 	"Welcome to RunBST.\nType h in this window to see options and to enter them.\n\n";
 
     public static void main(String[] args) {
+	if (args.length >= 2 && args[0].equals("-batch")) {
+	    String kind = (args.length >= 4 && args[2].equals("-tree")) ? args[3] : "bst";
+	    boolean ok = args.length == 2 || (args.length == 4 && args[2].equals("-tree"));
+	    try {
+		if (ok) newIndex(kind);
+	    } catch (IllegalArgumentException e) {
+		System.err.println(e.getMessage());
+		ok = false;
+	    }
+	    if (!ok) {
+		System.err.println("USAGE: java RunBST -batch script_or_log_or_- " +
+				   "[-tree bst|mbst|splay|balanced|bplus]");
+		System.exit(-1);
+	    }
+	    try {
+		runBatch(args[1], kind);
+	    } catch (IOException e) {
+		System.err.println(e.getMessage());
+		System.exit(-1);
+	    }
+	    return;
+	}
+	if (args.length >= 3 && args[0].equals("-compile")) {
+	    try {
+		compile(args[1], args[2]);
+	    } catch (IOException e) {
+		System.err.println(e.getMessage());
+		System.exit(-1);
+	    }
+	    return;
+	}
 	Random rand = new Random();
 	BinarySearchTree tree = new BinarySearchTree<Integer>();  // the tree
 	BufferedReader stdin = 
@@ -22,6 +78,8 @@ public class RunBST {
 	boolean quit = false; // quit the application?
 
 	BTDisplay display = new BTDisplay(tree);
+	final BTDisplay first = display;
+	RepaintThrottle repaints = new RepaintThrottle(() -> first.repaint(), MAX_FPS);
 
 	System.out.print(initMessage);
 	
@@ -44,7 +102,7 @@ public class RunBST {
 		    System.out.print("Enter integer to add: ");		    
 		    int i = Integer.parseInt(stdin.readLine());
 		    tree.addElement(Integer.valueOf(i));
-		    display.repaint();
+		    repaints.request();
 		    break;
 		case 'f': // find an object in a node
 		    System.out.print("Enter integer to find: ");
@@ -60,7 +118,9 @@ public class RunBST {
 		    System.out.println("Tree deleted.  New tree!.");
 		    display.close();
 		    display = new BTDisplay(tree);
-		    display.repaint();
+		    final BTDisplay next = display;
+		    repaints.setTarget(() -> next.repaint());
+		    repaints.request();
 		    break;
 		case 'p': // print tree
 		    tree.inOrder();
@@ -69,7 +129,7 @@ public class RunBST {
 		    System.out.print("Enter integer to delete: ");
 		    int ri = Integer.parseInt(stdin.readLine());
 		    tree.removeElement(Integer.valueOf(ri));
-		    display.repaint();
+		    repaints.request();
 		    break;
 		case 'h': // print help message
 		    System.out.println(helpmsg);
@@ -77,6 +137,7 @@ public class RunBST {
 		case 'q': // quit
 		    System.out.println("Quitting.");
 		    quit = true;
+		    repaints.close();
 		    display.quit(); // close display
 		    break;
 		default: 
@@ -92,4 +153,324 @@ public class RunBST {
 
 	}
     }
+
+    /*
+      Coalesces repaint requests.  However many arrive, the target
+      runs at most maxFps times a second on a timer thread, and once
+      more after the last request, so input is never held up by
+      drawing a large tree.
+    */
+    static class RepaintThrottle implements AutoCloseable {
+	private final ScheduledExecutorService timer;
+	private final AtomicBoolean dirty = new AtomicBoolean();
+	private volatile Runnable target;
+
+	RepaintThrottle(Runnable target, int maxFps) {
+	    this.target = target;
+	    timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "repaint");
+		t.setDaemon(true);
+		return t;
+	    });
+	    long period = 1_000_000_000L / maxFps;
+	    timer.scheduleAtFixedRate(this::tick, period, period, TimeUnit.NANOSECONDS);
+	}
+
+	/* ask for a repaint at the next frame */
+	void request() {
+	    dirty.set(true);
+	}
+
+	/* repaint something else from now on */
+	void setTarget(Runnable target) {
+	    this.target = target;
+	}
+
+	private void tick() {
+	    if (dirty.getAndSet(false)) target.run();
+	}
+
+	/* do any pending repaint now, then stop */
+	public void close() {
+	    try {
+		timer.submit(this::tick).get();
+	    } catch (InterruptedException | ExecutionException e) {
+		// nothing left to draw into
+	    }
+	    timer.shutdown();
+	}
+    }
+
+    /******************************************************************/
+    /* Batch mode. */
+    /******************************************************************/
+
+    static final int BATCH = 4096; // ops parsed at a time
+
+    // op codes, also the bytes of the binary log
+    static final byte ADD = 'a', FIND = 'f', DELETE = 'd', PRINT = 'p', NEW = 'n';
+    private static final byte OPCODES[] = { ADD, FIND, DELETE, PRINT, NEW };
+    private static final String OPNAMES[] = { "add", "find", "delete", "print", "new" };
+
+    // first bytes of a binary op log
+    static final int LOG_MAGIC = 0x4253544c; // "BSTL"
+
+    /* A batch of parsed ops: op[i] applied to keys lo[i]..hi[i]. */
+    static class Ops {
+	final byte op[] = new byte[BATCH];
+	final int lo[] = new int[BATCH];
+	final int hi[] = new int[BATCH];
+	int n;
+    }
+
+    /* Source of ops, text script or binary log. */
+    interface OpReader extends Closeable {
+	/* refill ops; returns false at the end of the input */
+	boolean next(Ops ops) throws IOException;
+    }
+
+    /* open name ("-" for stdin), a binary log if it starts with LOG_MAGIC */
+    static OpReader open(String name) throws IOException {
+	InputStream in = name.equals("-") ? System.in : new FileInputStream(name);
+	BufferedInputStream bin = new BufferedInputStream(in, 1 << 16);
+	bin.mark(4);
+	byte head[] = new byte[4];
+	int got = bin.readNBytes(head, 0, 4);
+	if (got == 4 && ((head[0] & 0xff) << 24 | (head[1] & 0xff) << 16
+			 | (head[2] & 0xff) << 8 | (head[3] & 0xff)) == LOG_MAGIC)
+	    return new LogReader(bin);
+	bin.reset();
+	return new ScriptReader(bin);
+    }
+
+    /*
+      Scans a script a byte at a time out of a buffer, converting
+      numbers as it goes.
+    */
+    static class ScriptReader implements OpReader {
+	private final InputStream in;
+	private final byte buf[] = new byte[1 << 16];
+	private int pos, len;
+	private int line = 1;
+	private byte cur = 0; // command the next keys belong to
+
+	ScriptReader(InputStream in) {
+	    this.in = in;
+	}
+
+	private int read() throws IOException {
+	    if (pos == len) {
+		len = in.read(buf, 0, buf.length);
+		pos = 0;
+		if (len <= 0) { len = 0; return -1; }
+	    }
+	    return buf[pos++] & 0xff;
+	}
+
+	private int peek() throws IOException {
+	    int c = read();
+	    if (c >= 0) pos--;
+	    return c;
+	}
+
+	public boolean next(Ops ops) throws IOException {
+	    ops.n = 0;
+	    while (ops.n < BATCH) {
+		int c = read();
+		if (c < 0) break;
+		if (c == '\n') line++;
+		else if (c == '#') {
+		    while ((c = read()) >= 0 && c != '\n') ;
+		    line++;
+		}
+		else if (Character.isLetter(c)) {
+		    StringBuilder w = new StringBuilder().append((char) c);
+		    while (Character.isLetter(c = peek())) w.append((char) read());
+		    cur = opcode(w.toString());
+		    if (cur == PRINT || cur == NEW) add(ops, cur, 0, 0);
+		}
+		else if (c == '-' || (c >= '0' && c <= '9')) {
+		    int lo = number(c);
+		    int hi = lo;
+		    if (peek() == '.') {
+			read();
+			if (read() != '.') throw error("expected lo..hi");
+			hi = number(read());
+		    }
+		    if (cur != ADD && cur != FIND && cur != DELETE)
+			throw error("key without a command");
+		    add(ops, cur, lo, hi);
+		}
+		else if (!Character.isWhitespace(c))
+		    throw error("unexpected '" + (char) c + "'");
+	    }
+	    return ops.n > 0;
+	}
+
+	private void add(Ops ops, byte op, int lo, int hi) {
+	    ops.op[ops.n] = op;
+	    ops.lo[ops.n] = lo;
+	    ops.hi[ops.n] = hi;
+	    ops.n++;
+	}
+
+	private byte opcode(String w) throws IOException {
+	    for (int i = 0; i < OPNAMES.length; i++)
+		if (w.equals(OPNAMES[i]) || w.equals(OPNAMES[i].substring(0, 1)))
+		    return OPCODES[i];
+	    throw error("unknown command " + w);
+	}
+
+	/* int starting with c, which is '-' or a digit */
+	private int number(int c) throws IOException {
+	    boolean neg = c == '-';
+	    if (neg) c = read();
+	    if (c < '0' || c > '9') throw error("expected a number");
+	    long v = 0;
+	    while (true) {
+		v = 10 * v + (c - '0');
+		if (v > 1L << 31) throw error("number out of range");
+		int d = peek();
+		if (d < '0' || d > '9') break;
+		c = read();
+	    }
+	    if (neg) v = -v;
+	    if (v > Integer.MAX_VALUE) throw error("number out of range");
+	    return (int) v;
+	}
+
+	private IOException error(String msg) {
+	    return new IOException("line " + line + ": " + msg);
+	}
+
+	public void close() throws IOException {
+	    in.close();
+	}
+    }
+
+    /* Binary op log: after LOG_MAGIC, records of op byte, int lo, int hi. */
+    static class LogReader implements OpReader {
+	private final DataInputStream in;
+
+	LogReader(InputStream in) {
+	    this.in = new DataInputStream(in);
+	}
+
+	public boolean next(Ops ops) throws IOException {
+	    ops.n = 0;
+	    try {
+		while (ops.n < BATCH) {
+		    ops.op[ops.n] = in.readByte();
+		    ops.lo[ops.n] = in.readInt();
+		    ops.hi[ops.n] = in.readInt();
+		    ops.n++;
+		}
+	    } catch (EOFException e) {
+		// a partial last record is dropped
+	    }
+	    return ops.n > 0;
+	}
+
+	public void close() throws IOException {
+	    in.close();
+	}
+    }
+
+    /* write the ops of script to a binary log */
+    static void compile(String script, String log) throws IOException {
+	Ops ops = new Ops();
+	try (OpReader in = open(script);
+	     DataOutputStream out = new DataOutputStream(
+		 new BufferedOutputStream(new FileOutputStream(log), 1 << 16))) {
+	    out.writeInt(LOG_MAGIC);
+	    while (in.next(ops)) {
+		for (int i = 0; i < ops.n; i++) {
+		    out.writeByte(ops.op[i]);
+		    out.writeInt(ops.lo[i]);
+		    out.writeInt(ops.hi[i]);
+		}
+	    }
+	}
+    }
+
+    /* an empty index of the named kind */
+    static OrderedIndex<Integer> newIndex(String kind) {
+	switch (kind) {
+	case "bst": return new BinarySearchTree<Integer>();
+	case "mbst": return new BinarySearchTree<Integer>(true);
+	case "splay": return new SplayTree<Integer>();
+	case "balanced": return new BalancedBST<Integer>();
+	case "bplus": return new BPlusTree();
+	default: throw new IllegalArgumentException("Unknown tree " + kind);
+	}
+    }
+
+    /*
+      Run the ops of name on a fresh index of the given kind, timing
+      each one, then report counts, ops/sec and latency percentiles
+      per command on stderr.  Output of print goes to stdout.
+    */
+    static void runBatch(String name, String kind) throws IOException {
+	OrderedIndex<Integer> tree = newIndex(kind);
+	Metrics.Recorder latency[] = new Metrics.Recorder[OPCODES.length];
+	for (int i = 0; i < latency.length; i++) latency[i] = new Metrics.Recorder();
+	long found = 0, removed = 0;
+	PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+	Ops ops = new Ops();
+
+	long start = System.nanoTime();
+	try (OpReader in = open(name)) {
+	    while (in.next(ops)) {
+		for (int i = 0; i < ops.n; i++) {
+		    byte op = ops.op[i];
+		    Metrics.Recorder rec = latency[index(op)];
+		    if (op == PRINT) {
+			long t = System.nanoTime();
+			tree.inOrder(out);
+			out.println();
+			rec.record(System.nanoTime() - t);
+			continue;
+		    }
+		    if (op == NEW) {
+			long t = System.nanoTime();
+			tree = newIndex(kind);
+			rec.record(System.nanoTime() - t);
+			continue;
+		    }
+		    for (long k = ops.lo[i]; k <= ops.hi[i]; k++) {
+			Integer key = Integer.valueOf((int) k);
+			long t = System.nanoTime();
+			if (op == ADD) tree.addElement(key);
+			else if (op == FIND) { if (tree.getElement(key) != null) found++; }
+			else if (tree.removeElement(key) != null) removed++;
+			rec.record(System.nanoTime() - t);
+		    }
+		}
+	    }
+	}
+	out.flush();
+	double secs = (System.nanoTime() - start) / 1e9;
+
+	long total = 0;
+	System.err.printf("%-7s %10s %12s %8s %8s %8s %8s %10s%n", "op", "count",
+			  "ops/sec", "p50", "p90", "p99", "p999", "max (ns)");
+	for (int i = 0; i < OPCODES.length; i++) {
+	    Metrics.HistogramSnapshot h = latency[i].snapshot();
+	    if (h.count() == 0) continue;
+	    total += h.count();
+	    double busy = h.mean() * h.count() / 1e9;
+	    System.err.printf("%-7s %10d %12.0f %8d %8d %8d %8d %10d%n", OPNAMES[i], h.count(),
+			      busy > 0 ? h.count() / busy : 0, h.percentile(0.5),
+			      h.percentile(0.9), h.percentile(0.99),
+			      h.percentile(0.999), h.max());
+	}
+	System.err.printf("%d ops in %.3f s (%.0f ops/sec), %d found, %d deleted%n",
+			  total, secs, total / secs, found, removed);
+    }
+
+    private static int index(byte op) throws IOException {
+	for (int i = 0; i < OPCODES.length; i++)
+	    if (OPCODES[i] == op) return i;
+	throw new IOException("bad op code " + op);
+    }
 }
@@ -2,7 +2,34 @@
   A couple of basic searching algorithms.
 */
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
 public class Searches extends TestRuntime {
+    // probe counters, see Metrics.  Only counted with -Dmetrics.enabled=true.
+    private static final Metrics.Counter linearProbes =
+	Metrics.counter("searches.linear.probes");
+    private static final Metrics.Counter binaryProbes =
+	Metrics.counter("searches.binary.probes");
+    private static final Metrics.Counter interpolationProbes =
+	Metrics.counter("searches.interpolation.probes");
+    private static final Metrics.Counter exponentialProbes =
+	Metrics.counter("searches.exponential.probes");
+    private static final Metrics.Counter adaptiveSamples =
+	Metrics.counter("searches.adaptive.samples");
+    private static final Metrics.Histogram searchAllNanos =
+	Metrics.histogram("searches.searchAll.nanos");
+
+    // VectorSearch.search, or null if the Vector API is unavailable
+    private static final MethodHandle VECTOR_SEARCH = findVectorSearch();
+
+    // number of binary searches searchAll runs side by side
+    private static final int INTERLEAVE = 8;
+
+    // index of the last array given to learnedSearch; holds the array too
+    private static volatile LearnedIndex learned;
+
     /**
       @returns true iff x is found in a
       
@@ -13,10 +40,10 @@ public class Searches extends TestRuntime {
 	for (int i = 0; i < a.length; i++) {
 	    if (x == a[i]) {
 	    	
-	    	counterSearch++;
+	    	linearProbes.increment();
 	    	return true;
 	    }
-	    counterSearch++;
+	    linearProbes.increment();
 	}
 	return false;
     }
@@ -30,7 +57,7 @@ public class Searches extends TestRuntime {
     */
     public  static boolean binarySearch(int x, int a[]) {
 
-	if (a == null) return false;
+	if (a == null || a.length == 0) return false;
 	int first = 0;
 	int last = a.length-1;
 	int mid;
@@ -39,18 +66,19 @@ public class Searches extends TestRuntime {
 	
 	  mid = (first+last)/2;
 	  if (a[mid] < x) {
-	  counterBinary++;
+	  binaryProbes.increment();
 		first = mid+1;
 	    }
 
-	    else 
-	    	counterBinary++;
+	    else {
+	    	binaryProbes.increment();
 	    	last = mid;
+	    }
 	   
 	}
 
 	if (a[first] == x){
-		counterBinary++;
+		binaryProbes.increment();
 		return true;
 	}
 	// not found and array exhausted
@@ -59,4 +87,256 @@ public class Searches extends TestRuntime {
     }    
     
 
+
+    /**
+       @returns true iff x is found in a
+       @param x the integer to find
+       @param a[] the array to search, sorted in increasing order
+
+       Uses interpolation search: probes where x would be if the
+       values of a were evenly spread.  Takes O(log log n) probes
+       on uniformly distributed data, O(n) in the worst case.
+    */
+    public static boolean interpolationSearch(int x, int a[]) {
+	if (a == null) return false;
+	int first = 0;
+	int last = a.length-1;
+
+	while (first <= last && x >= a[first] && x <= a[last]) {
+	    interpolationProbes.increment();
+	    if (a[first] == a[last]) return a[first] == x;
+	    // position of x if values grew linearly from a[first] to a[last]
+	    double frac = ((double) x - a[first]) / ((double) a[last] - a[first]);
+	    int mid = first + (int) (frac * (last - first));
+	    if (a[mid] == x) return true;
+	    if (a[mid] < x) first = mid+1;
+	    else last = mid-1;
+	}
+	return false;
+    }
+
+    /**
+       @returns true iff x is found in a
+       @param x the integer to find
+       @param a[] the array to search, sorted in increasing order
+
+       Uses exponential (galloping) search: doubles a bound from the
+       front until it passes x, then binary searches the last gap.
+       Takes O(log i) probes where i is the position of x.
+    */
+    public static boolean exponentialSearch(int x, int a[]) {
+	if (a == null || a.length == 0) return false;
+	int bound = 1;
+	while (bound < a.length && a[bound] < x) {
+	    exponentialProbes.increment();
+	    bound *= 2;
+	}
+	int first = bound/2;
+	int last = Math.min(bound, a.length-1);
+
+	while (first < last) {
+	    int mid = (first+last) >>> 1;
+	    exponentialProbes.increment();
+	    if (a[mid] < x) first = mid+1;
+	    else last = mid;
+	}
+	exponentialProbes.increment();
+	return a[first] == x;
+    }
+
+    /**
+       @returns true iff x is found in a
+       @param x the integer to find
+       @param a[] the array to search, sorted in increasing order
+
+       Picks a search from a few sampled elements of a: exponential
+       search if x lies in the first 1/64th of the values, interpolation
+       search if the samples lie close to a straight line, and binary
+       search otherwise.  Sample probes are counted in
+       searches.adaptive.samples, probes of the chosen search in that
+       search's counter.
+    */
+    public static boolean adaptiveSearch(int x, int a[]) {
+	if (a == null || a.length == 0) return false;
+	int n = a.length;
+	if (n < 64) return binarySearch(x, a);
+
+	adaptiveSamples.increment();
+	if (x <= a[n >>> 6]) return exponentialSearch(x, a);
+
+	// compare quartiles with where a straight line would put them
+	double lo = a[0];
+	double range = (double) a[n-1] - lo;
+	adaptiveSamples.add(2);
+	boolean uniform = range > 0;
+	for (int q = 1; q <= 3 && uniform; q++) {
+	    adaptiveSamples.increment();
+	    double expected = lo + range * q / 4;
+	    if (Math.abs(a[(int) ((long) n * q / 4)] - expected) > range / 16)
+		uniform = false;
+	}
+	if (uniform) return interpolationSearch(x, a);
+	return binarySearch(x, a);
+    }
+
+    /**
+       @returns true iff x is found in a
+       @param x the integer to find
+       @param a[] the array to search, sorted in increasing order
+
+       Uses a LearnedIndex: a piecewise linear model of where each key
+       is, built in one pass, predicts the position of x and only a
+       small window around it is searched.  The index of the last
+       array searched is kept, so repeated searches of one large,
+       static array build it once; a must not change between calls.
+       The cached index keeps that array reachable until another
+       array is searched or clearLearnedIndex is called, so code that
+       searches large tables should build a LearnedIndex itself and
+       use learnedSearch(x, index) instead.
+       Window probes are counted in searches.learned.probes.
+    */
+    public static boolean learnedSearch(int x, int a[]) {
+	if (a == null || a.length == 0) return false;
+	LearnedIndex index = learned;
+	if (index == null || index.array() != a) learned = index = new LearnedIndex(a);
+	return index.contains(x);
+    }
+
+    /**
+       @returns true iff x is in the array of index
+       @param x the integer to find
+       @param index a LearnedIndex built over the array to search
+    */
+    public static boolean learnedSearch(int x, LearnedIndex index) {
+	return index.contains(x);
+    }
+
+    /** Drop the index cached by learnedSearch(x, a), and with it the array. */
+    public static void clearLearnedIndex() {
+	learned = null;
+    }
+
+    /*
+      Look up VectorSearch.search.  VectorSearch needs the
+      jdk.incubator.vector module, so it is loaded by name and tried
+      once; any failure means we use the scalar search.
+    */
+    private static MethodHandle findVectorSearch() {
+	try {
+	    MethodHandle h = MethodHandles.lookup().findStatic(
+		Class.forName("VectorSearch"), "search",
+		MethodType.methodType(boolean.class, int.class, int[].class));
+	    boolean found = (boolean) h.invokeExact(0, new int[] { 0 });
+	    return found ? h : null;
+	} catch (Throwable ex) {
+	    return null;
+	}
+    }
+
+    /**
+       @returns true iff x is found in a
+
+       Sequential search that compares many elements at a time, using
+       the Vector API when it is available and an unrolled scalar
+       loop otherwise.
+    */
+    public static boolean vectorSearch(int x, int a[]) {
+	if (a == null) return false;
+	if (VECTOR_SEARCH != null) {
+	    try {
+		return (boolean) VECTOR_SEARCH.invokeExact(x, a);
+	    } catch (Throwable ex) {
+		throw new IllegalStateException(ex);
+	    }
+	}
+	return unrolledSearch(x, a);
+    }
+
+    /* scalar fallback for vectorSearch: 8 independent compares per step */
+    private static boolean unrolledSearch(int x, int a[]) {
+	int i = 0;
+	for (; i + 8 <= a.length; i += 8) {
+	    if ((a[i] == x) | (a[i+1] == x) | (a[i+2] == x) | (a[i+3] == x) |
+		(a[i+4] == x) | (a[i+5] == x) | (a[i+6] == x) | (a[i+7] == x))
+		return true;
+	}
+	for (; i < a.length; i++) {
+	    if (a[i] == x) return true;
+	}
+	return false;
+    }
+
+    /**
+       @returns found, where found[i] is true iff queries[i] is in a
+       @param queries the integers to find, in any order
+       @param a[] the array to search, sorted in increasing order
+
+       Sorted queries are answered in one merge-like pass over a,
+       galloping forward from the previous answer.  Otherwise groups
+       of queries are binary searched side by side, so the loads of
+       different searches overlap instead of waiting on each other.
+    */
+    public static boolean[] searchAll(int queries[], int a[]) {
+	boolean[] found = new boolean[queries.length];
+	if (a == null || a.length == 0) return found;
+	long start = Metrics.now();
+
+	boolean sorted = true;
+	for (int i = 1; i < queries.length && sorted; i++)
+	    sorted = queries[i-1] <= queries[i];
+
+	if (sorted) mergeSearch(queries, a, found);
+	else interleavedSearch(queries, a, found);
+	searchAllNanos.recordSince(start);
+	return found;
+    }
+
+    /* searchAll for queries in increasing order */
+    private static void mergeSearch(int queries[], int a[], boolean found[]) {
+	int pos = 0; // every later query is at or after pos
+	for (int i = 0; i < queries.length; i++) {
+	    int x = queries[i];
+	    // gallop to a bound past x, then binary search the gap
+	    int step = 1;
+	    int first = pos;
+	    int last = pos;
+	    while (last < a.length && a[last] < x) {
+		first = last+1;
+		last = pos + step;
+		step *= 2;
+	    }
+	    if (last > a.length) last = a.length;
+	    while (first < last) {
+		int mid = (first+last) >>> 1;
+		if (a[mid] < x) first = mid+1;
+		else last = mid;
+	    }
+	    pos = first;
+	    found[i] = pos < a.length && a[pos] == x;
+	}
+    }
+
+    /* searchAll for unordered queries */
+    private static void interleavedSearch(int queries[], int a[],
+					  boolean found[]) {
+	int base[] = new int[INTERLEAVE];
+	for (int g = 0; g < queries.length; g += INTERLEAVE) {
+	    int cnt = Math.min(INTERLEAVE, queries.length - g);
+	    java.util.Arrays.fill(base, 0);
+	    // every search in the group halves the same range length,
+	    // so they can step together
+	    int len = a.length;
+	    while (len > 1) {
+		int half = len >>> 1;
+		for (int j = 0; j < cnt; j++) {
+		    int b = base[j];
+		    base[j] = (a[b + half - 1] < queries[g+j]) ? b + half : b;
+		}
+		len -= half;
+	    }
+	    for (int j = 0; j < cnt; j++)
+		found[g+j] = a[base[j]] == queries[g+j];
+	}
+    }
+
 }
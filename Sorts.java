@@ -1,11 +1,34 @@
 // Contains examples of different sorting algorithms for sorting
 // arrays.  These are static methods that any client can use.
 // Author: S. Anderson
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
 
 public class Sorts extends TestRuntime  {
 
-    private static Random rand = new Random( );
+    // seeded so runs repeat; see setSeed
+    private static Random rand = new Random( Long.getLong("sorts.seed", 42) );
+
+    // operation counters, see Metrics.  Only counted with -Dmetrics.enabled=true.
+    private static final Metrics.Counter bubbleCompares =
+	Metrics.counter("sorts.bubble.comparisons");
+    private static final Metrics.Counter bubbleSwaps =
+	Metrics.counter("sorts.bubble.swaps");
+    private static final Metrics.Counter insertCompares =
+	Metrics.counter("sorts.insertion.comparisons");
+    private static final Metrics.Counter insertSwaps =
+	Metrics.counter("sorts.insertion.swaps");
+
+    // partitions this small are finished with insertion sort
+    private static final int INSERTION_THRESHOLD = 32;
+    // parallel sorts split ranges larger than this into subtasks
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
 
     /**
       sort the elements of an array with bubble sort.  On each pass
@@ -22,10 +45,10 @@ public class Sorts extends TestRuntime  {
 		
 	    // push larger elements downward
 	    for ( int i = 0; i < last; i++ ) {
-	    	counterBubble++;
+	    	bubbleCompares.increment();
 		
 		if ( b[ i ] > b[ i+1 ] ) {
-			counterBubble++;
+			bubbleSwaps.increment();
 		    swap( b, i, i+1 );
 		    swapped = true;
 		}
@@ -59,15 +82,1152 @@ public class Sorts extends TestRuntime  {
 			while (j >= 1 && a[j] <= a[j-1]) {
 				swap(a, j-1, j);
 				j--;
-				counterInsert++;
+				insertCompares.increment();
+				insertSwaps.increment();
 
 			}
-			counterInsert++;
+			insertCompares.increment();
 
 		}
 
 }
 
+    /**
+     * Insertion sort of a[lo..hi-1].  Shifts instead of swapping and
+     * does not touch the counters, so the divide and conquer sorts
+     * can use it on small partitions.
+     */
+    public static void insertionSort( int a[], int lo, int hi )
+    {
+	for (int i = lo + 1; i < hi; i++) {
+	    int key = a[i];
+	    int j = i - 1;
+	    while (j >= lo && a[j] > key) {
+		a[j+1] = a[j];
+		j--;
+	    }
+	    a[j+1] = key;
+	}
+    }
+
+    /**
+     * Merge sort.  Stable, O(n log n), uses an extra array of size n.
+     * @param a an array of integers.
+     */
+    public static void mergeSort( int a[] )
+    {
+	int aux[] = a.clone();
+	mergeSort(aux, a, 0, a.length);
+    }
+
+    /**
+     * Merge sort that sorts the two halves of large ranges, and
+     * merges large runs, in parallel with fork/join.
+     * @param a an array of integers.
+     */
+    public static void parallelMergeSort( int a[] )
+    {
+	if (a.length <= PARALLEL_THRESHOLD) { mergeSort(a); return; }
+	int aux[] = a.clone();
+	ForkJoinPool.commonPool().invoke(new MergeSortTask(aux, a, 0, a.length));
+    }
+
+    /*
+      Sort src[lo..hi-1] into dst[lo..hi-1].  src and dst must hold
+      the same elements in that range on entry; the roles of the two
+      arrays swap at each level so no copying back is needed.
+    */
+    private static void mergeSort( int src[], int dst[], int lo, int hi )
+    {
+	if (hi - lo <= INSERTION_THRESHOLD) {
+	    insertionSort(dst, lo, hi);
+	    return;
+	}
+	int mid = (lo + hi) >>> 1;
+	mergeSort(dst, src, lo, mid);
+	mergeSort(dst, src, mid, hi);
+	// already in order, nothing to merge
+	if (src[mid-1] <= src[mid]) {
+	    System.arraycopy(src, lo, dst, lo, hi - lo);
+	    return;
+	}
+	merge(src, lo, mid, mid, hi, dst, lo);
+    }
+
+    /* merge src[lo1..hi1-1] and src[lo2..hi2-1] into dst starting at k */
+    private static void merge( int src[], int lo1, int hi1, int lo2, int hi2,
+			       int dst[], int k )
+    {
+	while (lo1 < hi1 && lo2 < hi2) {
+	    if (src[lo2] < src[lo1]) dst[k++] = src[lo2++];
+	    else dst[k++] = src[lo1++];
+	}
+	if (lo1 < hi1) System.arraycopy(src, lo1, dst, k, hi1 - lo1);
+	else if (lo2 < hi2) System.arraycopy(src, lo2, dst, k, hi2 - lo2);
+    }
+
+    /* parallel version of mergeSort(src, dst, lo, hi) */
+    @SuppressWarnings("serial")
+    private static class MergeSortTask extends RecursiveAction {
+	private final int src[], dst[];
+	private final int lo, hi;
+
+	MergeSortTask(int src[], int dst[], int lo, int hi) {
+	    this.src = src; this.dst = dst; this.lo = lo; this.hi = hi;
+	}
+
+	protected void compute() {
+	    if (hi - lo <= PARALLEL_THRESHOLD) {
+		mergeSort(src, dst, lo, hi);
+		return;
+	    }
+	    int mid = (lo + hi) >>> 1;
+	    invokeAll(new MergeSortTask(dst, src, lo, mid),
+		      new MergeSortTask(dst, src, mid, hi));
+	    if (src[mid-1] <= src[mid]) {
+		System.arraycopy(src, lo, dst, lo, hi - lo);
+		return;
+	    }
+	    new MergeTask(src, lo, mid, mid, hi, dst, lo).compute();
+	}
+    }
+
+    /*
+      Parallel merge: split the longer run at its middle, find where
+      that element goes in the shorter run, and merge both halves
+      independently.
+    */
+    @SuppressWarnings("serial")
+    private static class MergeTask extends RecursiveAction {
+	private final int src[], dst[];
+	private final int lo1, hi1, lo2, hi2, k;
+
+	MergeTask(int src[], int lo1, int hi1, int lo2, int hi2,
+		  int dst[], int k) {
+	    this.src = src; this.lo1 = lo1; this.hi1 = hi1;
+	    this.lo2 = lo2; this.hi2 = hi2; this.dst = dst; this.k = k;
+	}
+
+	protected void compute() {
+	    int n1 = hi1 - lo1, n2 = hi2 - lo2;
+	    if (n1 + n2 <= PARALLEL_THRESHOLD) {
+		merge(src, lo1, hi1, lo2, hi2, dst, k);
+		return;
+	    }
+	    int m1, m2;
+	    if (n1 >= n2) {
+		// elements of run 2 equal to src[m1] stay after it
+		m1 = (lo1 + hi1) >>> 1;
+		m2 = lowerBound(src, lo2, hi2, src[m1]);
+	    } else {
+		// elements of run 1 equal to src[m2] stay before it
+		m2 = (lo2 + hi2) >>> 1;
+		m1 = lowerBound(src, lo1, hi1, src[m2] + 1L);
+	    }
+	    int km = k + (m1 - lo1) + (m2 - lo2);
+	    invokeAll(new MergeTask(src, lo1, m1, lo2, m2, dst, k),
+		      new MergeTask(src, m1, hi1, m2, hi2, dst, km));
+	}
+    }
+
+    /* first index in a[lo..hi-1] whose element is >= x */
+    private static int lowerBound( int a[], int lo, int hi, long x )
+    {
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (a[mid] < x) lo = mid + 1;
+	    else hi = mid;
+	}
+	return lo;
+    }
+
+    /**
+     * Introsort built on dual-pivot quicksort.  Falls back to heap
+     * sort when the recursion gets too deep, so the worst case is
+     * O(n log n).
+     * @param a an array of integers.
+     */
+    public static void quickSort( int a[] )
+    {
+	quickSort(a, 0, a.length - 1, depthLimit(a.length));
+    }
+
+    /**
+     * Dual-pivot quicksort that sorts the three partitions of large
+     * ranges in parallel with fork/join.
+     * @param a an array of integers.
+     */
+    public static void parallelQuickSort( int a[] )
+    {
+	ForkJoinPool.commonPool().invoke(
+	    new QuickSortTask(a, 0, a.length - 1, depthLimit(a.length)));
+    }
+
+    /* recursion depth after which quickSort switches to heap sort */
+    private static int depthLimit( int n )
+    {
+	return 2 * (32 - Integer.numberOfLeadingZeros(n | 1));
+    }
+
+    /* sort a[lo..hi] */
+    private static void quickSort( int a[], int lo, int hi, int depth )
+    {
+	if (hi - lo < INSERTION_THRESHOLD) {
+	    insertionSort(a, lo, hi + 1);
+	    return;
+	}
+	if (depth == 0) {
+	    heapSort(a, lo, hi + 1);
+	    return;
+	}
+	long p = partition(a, lo, hi);
+	int lt = (int) (p >> 32), gt = (int) p;
+	quickSort(a, lo, lt - 1, depth - 1);
+	if (a[lt] < a[gt]) quickSort(a, lt + 1, gt - 1, depth - 1);
+	quickSort(a, gt + 1, hi, depth - 1);
+    }
+
+    /*
+      Dual-pivot partition of a[lo..hi] around the elements at the
+      tertiles.  Afterwards a[lo..lt-1] < a[lt] <= a[lt+1..gt-1] <=
+      a[gt] < a[gt+1..hi].  Returns lt and gt packed into a long.
+    */
+    private static long partition( int a[], int lo, int hi )
+    {
+	int third = (hi - lo) / 3;
+	swap(a, lo, lo + third);
+	swap(a, hi, hi - third);
+	if (a[lo] > a[hi]) swap(a, lo, hi);
+	int p = a[lo], q = a[hi];
+
+	int lt = lo + 1, gt = hi - 1, k = lt;
+	while (k <= gt) {
+	    if (a[k] < p) {
+		swap(a, k, lt++);
+	    } else if (a[k] > q) {
+		while (a[gt] > q && k < gt) gt--;
+		swap(a, k, gt--);
+		if (a[k] < p) swap(a, k, lt++);
+	    }
+	    k++;
+	}
+	lt--; gt++;
+	swap(a, lo, lt);
+	swap(a, hi, gt);
+	return ((long) lt << 32) | (gt & 0xffffffffL);
+    }
+
+    /* parallel version of quickSort(a, lo, hi, depth) */
+    @SuppressWarnings("serial")
+    private static class QuickSortTask extends RecursiveAction {
+	private final int a[];
+	private final int lo, hi, depth;
+
+	QuickSortTask(int a[], int lo, int hi, int depth) {
+	    this.a = a; this.lo = lo; this.hi = hi; this.depth = depth;
+	}
+
+	protected void compute() {
+	    if (hi - lo < PARALLEL_THRESHOLD || depth == 0) {
+		quickSort(a, lo, hi, depth);
+		return;
+	    }
+	    long p = partition(a, lo, hi);
+	    int lt = (int) (p >> 32), gt = (int) p;
+	    if (a[lt] < a[gt])
+		invokeAll(new QuickSortTask(a, lo, lt - 1, depth - 1),
+			  new QuickSortTask(a, lt + 1, gt - 1, depth - 1),
+			  new QuickSortTask(a, gt + 1, hi, depth - 1));
+	    else
+		invokeAll(new QuickSortTask(a, lo, lt - 1, depth - 1),
+			  new QuickSortTask(a, gt + 1, hi, depth - 1));
+	}
+    }
+
+    /* heap sort of a[lo..hi-1] */
+    private static void heapSort( int a[], int lo, int hi )
+    {
+	int n = hi - lo;
+	for (int i = n / 2 - 1; i >= 0; i--) siftDown(a, lo, i, n);
+	for (int end = n - 1; end > 0; end--) {
+	    swap(a, lo, lo + end);
+	    siftDown(a, lo, 0, end);
+	}
+    }
+
+    /* restore the max-heap a[lo..lo+n-1] below position i */
+    private static void siftDown( int a[], int lo, int i, int n )
+    {
+	int x = a[lo + i];
+	while (2 * i + 1 < n) {
+	    int child = 2 * i + 1;
+	    if (child + 1 < n && a[lo + child + 1] > a[lo + child]) child++;
+	    if (a[lo + child] <= x) break;
+	    a[lo + i] = a[lo + child];
+	    i = child;
+	}
+	a[lo + i] = x;
+    }
+
+    /**
+     * Introselect: rearranges a so that a[k] is the element that
+     * would be there if a were sorted, with no larger element before
+     * it and no smaller one after.  Partitions as quickSort does but
+     * only follows the side holding k, so it takes O(n) expected
+     * time; falls back to heap sort when the recursion gets too deep.
+     * @param a an array of integers.
+     * @param k index of the element wanted, 0 &lt;= k &lt; a.length.
+     * @return the element of rank k.
+     */
+    public static int select( int a[], int k )
+    {
+	checkRank(a, k);
+	select(a, 0, a.length - 1, k, depthLimit(a.length));
+	return a[k];
+    }
+
+    /**
+     * select for large arrays: the range holding k is split three
+     * ways around a sampled pivot by blocks in parallel, as in
+     * parallelRadixSort, until it is small enough for select.
+     * Uses a buffer as large as a.
+     * @param a an array of integers.
+     * @param k index of the element wanted, 0 &lt;= k &lt; a.length.
+     * @return the element of rank k.
+     */
+    public static int parallelSelect( int a[], int k )
+    {
+	checkRank(a, k);
+	int lo = 0, hi = a.length; // a[lo..hi-1] holds k
+	if (hi > PARALLEL_THRESHOLD) {
+	    int buf[] = new int[a.length];
+	    for (int depth = depthLimit(a.length); hi - lo > PARALLEL_THRESHOLD; depth--) {
+		if (depth == 0) break;
+		long p = parallelPartition(a, buf, lo, hi, samplePivot(a, lo, hi));
+		int lt = (int) (p >> 32), gt = (int) p;
+		if (k < lt) hi = lt;
+		else if (k >= gt) lo = gt;
+		else return a[k]; // among the elements equal to the pivot
+	    }
+	}
+	select(a, lo, hi - 1, k, depthLimit(hi - lo));
+	return a[k];
+    }
+
+    /**
+     * Sorts the k smallest elements of a into a[0..k-1]; the rest
+     * are left in a[k..] in no particular order.  O(n + k log k).
+     * @param a an array of integers.
+     * @param k number of elements to sort, 0 &lt;= k &lt;= a.length.
+     */
+    public static void partialSort( int a[], int k )
+    {
+	if (k < 0 || k > a.length)
+	    throw new IllegalArgumentException("k = " + k + ", length " + a.length);
+	if (k == 0) return;
+	// a[k-1] is in place after the select, so only a[0..k-2] is left
+	int hi = k < a.length ? k - 2 : k - 1;
+	if (k < a.length) select(a, k - 1);
+	quickSort(a, 0, hi, depthLimit(k));
+    }
+
+    /**
+     * partialSort with parallelSelect and parallelQuickSort.
+     * @param a an array of integers.
+     * @param k number of elements to sort, 0 &lt;= k &lt;= a.length.
+     */
+    public static void parallelPartialSort( int a[], int k )
+    {
+	if (k < 0 || k > a.length)
+	    throw new IllegalArgumentException("k = " + k + ", length " + a.length);
+	if (k == 0) return;
+	int hi = k < a.length ? k - 2 : k - 1;
+	if (k < a.length) parallelSelect(a, k - 1);
+	ForkJoinPool.commonPool().invoke(new QuickSortTask(a, 0, hi, depthLimit(k)));
+    }
+
+    /**
+     * The k largest elements of a, largest first, kept in a min-heap
+     * of k elements while scanning a once.  O(n log k); a is not
+     * changed.
+     * @param a an array of integers.
+     * @param k number of elements wanted; fewer if a is shorter.
+     * @return a new array of the min(k, a.length) largest elements.
+     */
+    public static int[] topK( int a[], int k )
+    {
+	if (k < 0) throw new IllegalArgumentException("k = " + k);
+	int top[] = topK(a, 0, a.length, k);
+	sortDescending(top);
+	return top;
+    }
+
+    /**
+     * topK over blocks of a in parallel, then over the blocks' results.
+     * @param a an array of integers.
+     * @param k number of elements wanted; fewer if a is shorter.
+     * @return a new array of the min(k, a.length) largest elements.
+     */
+    public static int[] parallelTopK( int a[], int k )
+    {
+	if (k < 0) throw new IllegalArgumentException("k = " + k);
+	int n = a.length;
+	if (n <= PARALLEL_THRESHOLD || k >= n / 2) return topK(a, k);
+	int nblocks = Math.min(4 * ForkJoinPool.getCommonPoolParallelism(),
+			       n / PARALLEL_THRESHOLD);
+	int blockSize = (n + nblocks - 1) / nblocks;
+	int tops[][] = new int[nblocks][];
+	IntStream.range(0, nblocks).parallel().forEach(b ->
+	    tops[b] = topK(a, b * blockSize, Math.min(n, (b + 1) * blockSize), k));
+	int all[] = new int[Arrays.stream(tops).mapToInt(t -> t.length).sum()];
+	int m = 0;
+	for (int t[] : tops) {
+	    System.arraycopy(t, 0, all, m, t.length);
+	    m += t.length;
+	}
+	int top[] = topK(all, 0, m, k);
+	sortDescending(top);
+	return top;
+    }
+
+    private static void checkRank( int a[], int k )
+    {
+	if (k < 0 || k >= a.length)
+	    throw new IllegalArgumentException("rank " + k + ", length " + a.length);
+    }
+
+    /* select on a[lo..hi], which holds index k */
+    private static void select( int a[], int lo, int hi, int k, int depth )
+    {
+	while (hi - lo >= INSERTION_THRESHOLD) {
+	    if (depth-- == 0) {
+		heapSort(a, lo, hi + 1);
+		return;
+	    }
+	    long p = partition(a, lo, hi);
+	    int lt = (int) (p >> 32), gt = (int) p;
+	    if (k < lt) hi = lt - 1;
+	    else if (k > gt) lo = gt + 1;
+	    else if (k == lt || k == gt || a[lt] == a[gt]) return;
+	    else { lo = lt + 1; hi = gt - 1; }
+	}
+	insertionSort(a, lo, hi + 1);
+    }
+
+    /* median of nine elements spread over a[lo..hi-1] */
+    private static int samplePivot( int a[], int lo, int hi )
+    {
+	int sample[] = new int[9];
+	for (int i = 0; i < 9; i++)
+	    sample[i] = a[lo + (int) ((long) (hi - lo) * (2 * i + 1) / 18)];
+	insertionSort(sample);
+	return sample[4];
+    }
+
+    /*
+      Three-way partition of a[lo..hi-1] around pivot through buf,
+      by blocks in parallel: count each block's less, equal and
+      greater elements, give each block its offsets in the three
+      regions, scatter and copy back.  Returns the start of the
+      equal and of the greater region packed into a long.
+    */
+    private static long parallelPartition( int a[], int buf[], int lo, int hi, int pivot )
+    {
+	int n = hi - lo;
+	int nblocks = Math.max(1, Math.min(4 * ForkJoinPool.getCommonPoolParallelism(),
+					   n / PARALLEL_THRESHOLD));
+	int blockSize = (n + nblocks - 1) / nblocks;
+	int count[][] = new int[nblocks][3];
+	IntStream.range(0, nblocks).parallel().forEach(b -> {
+	    int c[] = count[b];
+	    int end = Math.min(hi, lo + (b + 1) * blockSize);
+	    for (int i = lo + b * blockSize; i < end; i++)
+		c[a[i] < pivot ? 0 : a[i] == pivot ? 1 : 2]++;
+	});
+	// turn counts into start offsets, region-major then block order
+	int sum = lo, start[] = new int[3];
+	for (int r = 0; r < 3; r++) {
+	    start[r] = sum;
+	    for (int b = 0; b < nblocks; b++) {
+		int c = count[b][r];
+		count[b][r] = sum;
+		sum += c;
+	    }
+	}
+	IntStream.range(0, nblocks).parallel().forEach(b -> {
+	    int off[] = count[b];
+	    int end = Math.min(hi, lo + (b + 1) * blockSize);
+	    for (int i = lo + b * blockSize; i < end; i++)
+		buf[off[a[i] < pivot ? 0 : a[i] == pivot ? 1 : 2]++] = a[i];
+	});
+	IntStream.range(0, nblocks).parallel().forEach(b -> {
+	    int from = lo + b * blockSize, end = Math.min(hi, from + blockSize);
+	    if (from < end) System.arraycopy(buf, from, a, from, end - from);
+	});
+	return ((long) start[1] << 32) | (start[2] & 0xffffffffL);
+    }
+
+    /* the min(k, hi-lo) largest of a[lo..hi-1], as a min-heap */
+    private static int[] topK( int a[], int lo, int hi, int k )
+    {
+	int m = Math.min(k, hi - lo);
+	int heap[] = Arrays.copyOfRange(a, lo, lo + m);
+	for (int i = m / 2 - 1; i >= 0; i--) minSiftDown(heap, i, m);
+	if (m == 0) return heap;
+	for (int i = lo + m; i < hi; i++) {
+	    if (a[i] > heap[0]) {
+		heap[0] = a[i];
+		minSiftDown(heap, 0, m);
+	    }
+	}
+	return heap;
+    }
+
+    /* restore the min-heap h[0..n-1] below position i */
+    private static void minSiftDown( int h[], int i, int n )
+    {
+	int x = h[i];
+	while (2 * i + 1 < n) {
+	    int child = 2 * i + 1;
+	    if (child + 1 < n && h[child + 1] < h[child]) child++;
+	    if (h[child] >= x) break;
+	    h[i] = h[child];
+	    i = child;
+	}
+	h[i] = x;
+    }
+
+    private static void sortDescending( int a[] )
+    {
+	quickSort(a);
+	for (int i = 0, j = a.length - 1; i < j; i++, j--) swap(a, i, j);
+    }
+
+    /**
+     * LSD radix sort, one byte per pass.  O(n) time, uses an extra
+     * array of size n.  Negative numbers are handled by flipping the
+     * sign bit of the top byte.
+     * @param a an array of integers.
+     */
+    public static void radixSort( int a[] )
+    {
+	if (a.length <= INSERTION_THRESHOLD) {
+	    insertionSort(a, 0, a.length);
+	    return;
+	}
+	int src[] = a, dst[] = new int[a.length];
+	int count[] = new int[257];
+	for (int shift = 0; shift < 32; shift += 8) {
+	    Arrays.fill(count, 0);
+	    for (int v : src) count[digit(v, shift) + 1]++;
+	    // every element has the same digit: this pass changes nothing
+	    if (count[digit(src[0], shift) + 1] == src.length) continue;
+	    for (int d = 0; d < 256; d++) count[d+1] += count[d];
+	    for (int v : src) dst[count[digit(v, shift)]++] = v;
+	    int t[] = src; src = dst; dst = t;
+	}
+	if (src != a) System.arraycopy(src, 0, a, 0, a.length);
+    }
+
+    /**
+     * LSD radix sort that counts and scatters blocks of the array in
+     * parallel.  Each block gets its own output offsets per digit, so
+     * the scatter stays stable.
+     * @param a an array of integers.
+     */
+    public static void parallelRadixSort( int a[] )
+    {
+	int n = a.length;
+	if (n <= PARALLEL_THRESHOLD) { radixSort(a); return; }
+	int nblocks = Math.min(4 * ForkJoinPool.getCommonPoolParallelism(),
+			       n / PARALLEL_THRESHOLD);
+	int blockSize = (n + nblocks - 1) / nblocks;
+	int count[][] = new int[nblocks][256];
+	int buf[] = new int[n];
+	int bufs[][] = { a, buf }; // bufs[0] is the source of this pass
+
+	for (int shift = 0; shift < 32; shift += 8) {
+	    final int sh = shift;
+	    final int src[] = bufs[0], dst[] = bufs[1];
+	    IntStream.range(0, nblocks).parallel().forEach(b -> {
+		int c[] = count[b];
+		Arrays.fill(c, 0);
+		int end = Math.min(n, (b + 1) * blockSize);
+		for (int i = b * blockSize; i < end; i++) c[digit(src[i], sh)]++;
+	    });
+	    // turn counts into start offsets, digit-major then block order
+	    int sum = 0;
+	    boolean trivial = false;
+	    for (int d = 0; d < 256; d++) {
+		int total = 0;
+		for (int b = 0; b < nblocks; b++) {
+		    int c = count[b][d];
+		    count[b][d] = sum;
+		    sum += c;
+		    total += c;
+		}
+		if (total == n) trivial = true;
+	    }
+	    if (trivial) continue;
+	    IntStream.range(0, nblocks).parallel().forEach(b -> {
+		int off[] = count[b];
+		int end = Math.min(n, (b + 1) * blockSize);
+		for (int i = b * blockSize; i < end; i++)
+		    dst[off[digit(src[i], sh)]++] = src[i];
+	    });
+	    bufs[0] = dst; bufs[1] = src;
+	}
+	if (bufs[0] != a) System.arraycopy(bufs[0], 0, a, 0, n);
+    }
+
+    /* byte of v at shift, with the sign bit flipped in the top byte */
+    private static int digit( int v, int shift )
+    {
+	int d = (v >>> shift) & 0xFF;
+	return shift == 24 ? d ^ 0x80 : d;
+    }
+
+    /**
+     * Adaptive merge sort in the style of TimSort.  Finds the natural
+     * ascending and descending runs of a, extends short runs to a
+     * minimum length with binary insertion sort, and merges runs with
+     * galloping.  O(n) on input made of a few runs, O(n log n) on
+     * random input.  Stable.
+     * @param a an array of integers.
+     */
+    public static void adaptiveSort( int a[] )
+    {
+	int n = a.length;
+	if (n < 2) return;
+	if (n < MIN_MERGE) {
+	    int run = countRunAndMakeAscending(a, 0, n);
+	    binaryInsertionSort(a, 0, n, run);
+	    return;
+	}
+	RunMerger merger = new RunMerger(a);
+	int minRun = minRunLength(n);
+	int lo = 0;
+	while (lo < n) {
+	    int run = countRunAndMakeAscending(a, lo, n);
+	    if (run < minRun) {
+		int force = Math.min(n - lo, minRun);
+		binaryInsertionSort(a, lo, lo + force, lo + run);
+		run = force;
+	    }
+	    merger.pushRun(lo, run);
+	    merger.mergeCollapse();
+	    lo += run;
+	}
+	merger.mergeForceCollapse();
+    }
+
+    // arrays shorter than this are sorted by binary insertion alone
+    private static final int MIN_MERGE = 32;
+    // wins in a row before a merge switches to galloping
+    private static final int MIN_GALLOP = 7;
+
+    /*
+      Minimum run length for an array of length n: n/2^k rounded up
+      to lie in [MIN_MERGE/2, MIN_MERGE], so the runs merge in
+      balanced pairs.
+    */
+    private static int minRunLength( int n )
+    {
+	int r = 0;
+	while (n >= MIN_MERGE) {
+	    r |= (n & 1);
+	    n >>= 1;
+	}
+	return n + r;
+    }
+
+    /*
+      Length of the run starting at a[lo], ending before hi.  A
+      strictly descending run is reversed so that every run is
+      ascending afterwards.
+    */
+    private static int countRunAndMakeAscending( int a[], int lo, int hi )
+    {
+	int runHi = lo + 1;
+	if (runHi == hi) return 1;
+	if (a[runHi++] < a[lo]) {
+	    while (runHi < hi && a[runHi] < a[runHi - 1]) runHi++;
+	    for (int i = lo, j = runHi - 1; i < j; i++, j--) swap(a, i, j);
+	} else {
+	    while (runHi < hi && a[runHi] >= a[runHi - 1]) runHi++;
+	}
+	return runHi - lo;
+    }
+
+    /*
+      Sort a[lo..hi-1], of which a[lo..start-1] is already sorted,
+      placing each later element with a binary search.
+    */
+    private static void binaryInsertionSort( int a[], int lo, int hi, int start )
+    {
+	if (start == lo) start++;
+	for (; start < hi; start++) {
+	    int pivot = a[start];
+	    int left = lo, right = start;
+	    // equal elements stay in front of pivot
+	    while (left < right) {
+		int mid = (left + right) >>> 1;
+		if (pivot < a[mid]) right = mid;
+		else left = mid + 1;
+	    }
+	    System.arraycopy(a, left, a, left + 1, start - left);
+	    a[left] = pivot;
+	}
+    }
+
+    /*
+      Number of elements of a[base..base+len-1] that are <= key
+      (orEqual) or < key (!orEqual).  Gallops from the right end when
+      fromRight, else from the left, so the cost is logarithmic in the
+      distance of the answer from that end.
+    */
+    private static int gallop( int key, int a[], int base, int len,
+			       boolean orEqual, boolean fromRight )
+    {
+	int lo, hi;
+	if (!fromRight) {
+	    lo = 0; hi = 1;
+	    while (hi < len && before(a[base + hi - 1], key, orEqual)) {
+		lo = hi;
+		hi = (hi > (len >>> 1)) ? len : 2 * hi + 1;
+	    }
+	    if (hi > len) hi = len;
+	} else {
+	    hi = len; lo = len - 1;
+	    int ofs = 1;
+	    while (lo >= 0 && !before(a[base + lo], key, orEqual)) {
+		hi = lo;
+		if (lo == 0) { lo = -1; break; }
+		ofs = (ofs > (len >>> 1)) ? len : 2 * ofs + 1;
+		lo = len - ofs;
+	    }
+	    lo = (lo < 0) ? 0 : lo + 1;
+	}
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (before(a[base + mid], key, orEqual)) lo = mid + 1;
+	    else hi = mid;
+	}
+	return lo;
+    }
+
+    /* does x belong in front of key? */
+    private static boolean before( int x, int key, boolean orEqual )
+    {
+	return orEqual ? x <= key : x < key;
+    }
+
+    /*
+      Stack of pending runs for adaptiveSort, plus the merge buffer.
+      Keeps run lengths decreasing fast enough that the stack depth
+      is O(log n), merging neighbours when they get too close.
+    */
+    private static class RunMerger {
+	private final int a[];
+	private int tmp[] = new int[256];
+	private int minGallop = MIN_GALLOP;
+	private final int runBase[] = new int[49];
+	private final int runLen[] = new int[49];
+	private int stackSize = 0;
+
+	RunMerger(int a[]) { this.a = a; }
+
+	void pushRun(int base, int len) {
+	    runBase[stackSize] = base;
+	    runLen[stackSize] = len;
+	    stackSize++;
+	}
+
+	/* merge until runLen[i-2] > runLen[i-1] + runLen[i] and
+	   runLen[i-1] > runLen[i] hold along the stack */
+	void mergeCollapse() {
+	    while (stackSize > 1) {
+		int n = stackSize - 2;
+		if (n > 0 && runLen[n-1] <= runLen[n] + runLen[n+1] ||
+		    n > 1 && runLen[n-2] <= runLen[n] + runLen[n-1]) {
+		    if (runLen[n-1] < runLen[n+1]) n--;
+		} else if (runLen[n] > runLen[n+1]) {
+		    break;
+		}
+		mergeAt(n);
+	    }
+	}
+
+	/* merge everything left on the stack into one run */
+	void mergeForceCollapse() {
+	    while (stackSize > 1) {
+		int n = stackSize - 2;
+		if (n > 0 && runLen[n-1] < runLen[n+1]) n--;
+		mergeAt(n);
+	    }
+	}
+
+	/* merge runs i and i+1 of the stack */
+	private void mergeAt(int i) {
+	    int base1 = runBase[i], len1 = runLen[i];
+	    int base2 = runBase[i+1], len2 = runLen[i+1];
+	    runLen[i] = len1 + len2;
+	    if (i == stackSize - 3) {
+		runBase[i+1] = runBase[i+2];
+		runLen[i+1] = runLen[i+2];
+	    }
+	    stackSize--;
+
+	    // elements of run 1 no bigger than run 2's first stay put
+	    int k = gallop(a[base2], a, base1, len1, true, false);
+	    base1 += k;
+	    len1 -= k;
+	    if (len1 == 0) return;
+	    // as do elements of run 2 no smaller than run 1's last
+	    len2 = gallop(a[base1 + len1 - 1], a, base2, len2, false, true);
+	    if (len2 == 0) return;
+
+	    if (len1 <= len2) mergeLo(base1, len1, base2, len2);
+	    else mergeHi(base1, len1, base2, len2);
+	}
+
+	private int[] ensureCapacity(int n) {
+	    if (tmp.length < n) tmp = new int[Math.max(n, 2 * tmp.length)];
+	    return tmp;
+	}
+
+	/* merge front to back, with the shorter run 1 copied out */
+	private void mergeLo(int base1, int len1, int base2, int len2) {
+	    int t[] = ensureCapacity(len1);
+	    System.arraycopy(a, base1, t, 0, len1);
+	    int c1 = 0, end1 = len1;
+	    int c2 = base2, end2 = base2 + len2;
+	    int dest = base1;
+	    int mg = minGallop;
+	outer:
+	    while (true) {
+		int count1 = 0, count2 = 0;
+		// one element at a time until one run keeps winning
+		do {
+		    if (a[c2] < t[c1]) {
+			a[dest++] = a[c2++];
+			count2++; count1 = 0;
+			if (c2 == end2) break outer;
+		    } else {
+			a[dest++] = t[c1++];
+			count1++; count2 = 0;
+			if (c1 == end1) break outer;
+		    }
+		} while ((count1 | count2) < mg);
+
+		// galloping: move whole blocks from one run at a time
+		do {
+		    count1 = gallop(a[c2], t, c1, end1 - c1, true, false);
+		    if (count1 != 0) {
+			System.arraycopy(t, c1, a, dest, count1);
+			dest += count1; c1 += count1;
+			if (c1 == end1) break outer;
+		    }
+		    a[dest++] = a[c2++];
+		    if (c2 == end2) break outer;
+		    count2 = gallop(t[c1], a, c2, end2 - c2, false, false);
+		    if (count2 != 0) {
+			System.arraycopy(a, c2, a, dest, count2);
+			dest += count2; c2 += count2;
+			if (c2 == end2) break outer;
+		    }
+		    a[dest++] = t[c1++];
+		    if (c1 == end1) break outer;
+		    mg--;
+		} while (count1 >= MIN_GALLOP | count2 >= MIN_GALLOP);
+		if (mg < 0) mg = 0;
+		mg += 2; // penalty for leaving gallop mode
+	    }
+	    minGallop = Math.max(1, mg);
+	    // what is left of run 2 is already in place
+	    if (c1 < end1) System.arraycopy(t, c1, a, dest, end1 - c1);
+	}
+
+	/* merge back to front, with the shorter run 2 copied out */
+	private void mergeHi(int base1, int len1, int base2, int len2) {
+	    int t[] = ensureCapacity(len2);
+	    System.arraycopy(a, base2, t, 0, len2);
+	    int c1 = base1 + len1 - 1;
+	    int c2 = len2 - 1;
+	    int dest = base2 + len2 - 1;
+	    int mg = minGallop;
+	outer:
+	    while (true) {
+		int count1 = 0, count2 = 0;
+		do {
+		    if (t[c2] < a[c1]) {
+			a[dest--] = a[c1--];
+			count1++; count2 = 0;
+			if (c1 < base1) break outer;
+		    } else {
+			a[dest--] = t[c2--];
+			count2++; count1 = 0;
+			if (c2 < 0) break outer;
+		    }
+		} while ((count1 | count2) < mg);
+
+		do {
+		    int len = c1 - base1 + 1;
+		    count1 = len - gallop(t[c2], a, base1, len, true, true);
+		    if (count1 != 0) {
+			dest -= count1; c1 -= count1;
+			System.arraycopy(a, c1 + 1, a, dest + 1, count1);
+			if (c1 < base1) break outer;
+		    }
+		    a[dest--] = t[c2--];
+		    if (c2 < 0) break outer;
+		    count2 = (c2 + 1) - gallop(a[c1], t, 0, c2 + 1, false, true);
+		    if (count2 != 0) {
+			dest -= count2; c2 -= count2;
+			System.arraycopy(t, c2 + 1, a, dest + 1, count2);
+			if (c2 < 0) break outer;
+		    }
+		    a[dest--] = a[c1--];
+		    if (c1 < base1) break outer;
+		    mg--;
+		} while (count1 >= MIN_GALLOP | count2 >= MIN_GALLOP);
+		if (mg < 0) mg = 0;
+		mg += 2;
+	    }
+	    minGallop = Math.max(1, mg);
+	    // what is left of run 1 is already in place
+	    if (c2 >= 0) System.arraycopy(t, 0, a, dest - c2, c2 + 1);
+	}
+    }
+
+    /**
+     * Stable merge sort of objects in the order given by c.
+     * @param a an array of objects.
+     * @param c the order to sort in.
+     */
+    public static <T> void mergeSort( T a[], Comparator<? super T> c )
+    {
+	T aux[] = a.clone();
+	mergeSort(aux, a, 0, a.length, c);
+    }
+
+    /**
+     * Stable merge sort of objects in their natural order.
+     * @param a an array of objects.
+     */
+    public static <T extends Comparable<? super T>> void mergeSort( T a[] )
+    {
+	mergeSort(a, Comparator.naturalOrder());
+    }
+
+    /* generic version of mergeSort(src, dst, lo, hi) */
+    private static <T> void mergeSort( T src[], T dst[], int lo, int hi,
+				       Comparator<? super T> c )
+    {
+	if (hi - lo <= INSERTION_THRESHOLD) {
+	    for (int i = lo + 1; i < hi; i++) {
+		T key = dst[i];
+		int j = i - 1;
+		while (j >= lo && c.compare(dst[j], key) > 0) {
+		    dst[j+1] = dst[j];
+		    j--;
+		}
+		dst[j+1] = key;
+	    }
+	    return;
+	}
+	int mid = (lo + hi) >>> 1;
+	mergeSort(dst, src, lo, mid, c);
+	mergeSort(dst, src, mid, hi, c);
+	if (c.compare(src[mid-1], src[mid]) <= 0) {
+	    System.arraycopy(src, lo, dst, lo, hi - lo);
+	    return;
+	}
+	int i = lo, j = mid;
+	for (int k = lo; k < hi; k++) {
+	    if (i < mid && (j >= hi || c.compare(src[j], src[i]) >= 0))
+		dst[k] = src[i++];
+	    else
+		dst[k] = src[j++];
+	}
+    }
+
+    /**
+     * Stable sort of objects by a long key.  Each key is extracted
+     * once, and the keys are radix sorted together with the original
+     * positions, so no comparator is called.
+     * @param a an array of objects.
+     * @param key extracts the sort key of an object.
+     */
+    public static <T> void sortByLongKey( T a[], ToLongFunction<? super T> key )
+    {
+	long keys[] = new long[a.length];
+	for (int i = 0; i < a.length; i++) keys[i] = key.applyAsLong(a[i]);
+	sortByKeys(a, keys);
+    }
+
+    /**
+     * Stable sort of objects by a double key, in the order of
+     * Double.compare.  Works like sortByLongKey.
+     * @param a an array of objects.
+     * @param key extracts the sort key of an object.
+     */
+    public static <T> void sortByDoubleKey( T a[], ToDoubleFunction<? super T> key )
+    {
+	long keys[] = new long[a.length];
+	for (int i = 0; i < a.length; i++) {
+	    long bits = Double.doubleToLongBits(key.applyAsDouble(a[i]));
+	    // negative doubles order backwards: flip all but the sign bit
+	    keys[i] = bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+	sortByKeys(a, keys);
+    }
+
+    /*
+      Reorder a so that keys (keys[i] belongs to a[i]) are increasing,
+      with an LSD radix sort of (key, index) pairs.
+    */
+    private static <T> void sortByKeys( T a[], long keys[] )
+    {
+	int n = a.length;
+	if (n < 2) return;
+	int idx[] = new int[n], idx2[] = new int[n];
+	long keys2[] = new long[n];
+	for (int i = 0; i < n; i++) idx[i] = i;
+	int count[] = new int[257];
+	for (int shift = 0; shift < 64; shift += 8) {
+	    Arrays.fill(count, 0);
+	    for (long k : keys) count[digit(k, shift) + 1]++;
+	    if (count[digit(keys[0], shift) + 1] == n) continue;
+	    for (int d = 0; d < 256; d++) count[d+1] += count[d];
+	    for (int i = 0; i < n; i++) {
+		int pos = count[digit(keys[i], shift)]++;
+		keys2[pos] = keys[i];
+		idx2[pos] = idx[i];
+	    }
+	    long tk[] = keys; keys = keys2; keys2 = tk;
+	    int ti[] = idx; idx = idx2; idx2 = ti;
+	}
+	T copy[] = a.clone();
+	for (int i = 0; i < n; i++) a[i] = copy[idx[i]];
+    }
+
+    /* byte of the long k at shift, with the sign bit flipped */
+    private static int digit( long k, int shift )
+    {
+	int d = (int) (k >>> shift) & 0xFF;
+	return shift == 56 ? d ^ 0x80 : d;
+    }
+
+    // string subarrays this small are left to three-way quicksort
+    private static final int STRING_CUTOFF = 64;
+
+    /**
+     * Sort strings in String.compareTo order.  Large arrays use MSD
+     * radix sort, small ones three-way string quicksort.
+     * @param a an array of strings.
+     */
+    public static void stringSort( String a[] )
+    {
+	if (a.length <= STRING_CUTOFF) threeWayStringSort(a);
+	else msdRadixSort(a);
+    }
+
+    /**
+     * MSD radix sort of strings, one byte of a char per pass, so the
+     * count arrays stay small.  Subarrays of up to STRING_CUTOFF
+     * strings are finished with three-way string quicksort.
+     * @param a an array of strings.
+     */
+    public static void msdRadixSort( String a[] )
+    {
+	String aux[] = new String[a.length];
+	msdRadixSort(a, aux, 0, a.length - 1, 0);
+    }
+
+    /*
+      Byte d of s: the high then the low byte of each char, and -1
+      past the end of s.
+    */
+    private static int byteAt( String s, int d )
+    {
+	int i = d >> 1;
+	if (i >= s.length()) return -1;
+	char c = s.charAt(i);
+	return ((d & 1) == 0) ? c >>> 8 : c & 0xFF;
+    }
+
+    /* sort a[lo..hi], all of which agree on bytes 0..d-1 */
+    private static void msdRadixSort( String a[], String aux[],
+				      int lo, int hi, int d )
+    {
+	if (hi - lo < STRING_CUTOFF) {
+	    threeWayStringSort(a, lo, hi, d >> 1);
+	    return;
+	}
+	int count[] = new int[258];
+	for (int i = lo; i <= hi; i++) count[byteAt(a[i], d) + 2]++;
+	for (int r = 0; r < 257; r++) count[r+1] += count[r];
+	for (int i = lo; i <= hi; i++) aux[count[byteAt(a[i], d) + 1]++] = a[i];
+	System.arraycopy(aux, 0, a, lo, hi - lo + 1);
+	// count[r] is now the end of bucket r-1; bucket -1 (ended
+	// strings) is done, sort the others on the next byte
+	for (int r = 0; r < 256; r++) {
+	    int start = lo + count[r], end = lo + count[r+1] - 1;
+	    if (end > start) msdRadixSort(a, aux, start, end, d + 1);
+	}
+    }
+
+    /**
+     * Three-way string quicksort (Bentley and Sedgewick).  Partitions
+     * on one char at a time, so common prefixes are compared once.
+     * @param a an array of strings.
+     */
+    public static void threeWayStringSort( String a[] )
+    {
+	threeWayStringSort(a, 0, a.length - 1, 0);
+    }
+
+    /* char d of s, or -1 past the end */
+    private static int charAt( String s, int d )
+    {
+	return d < s.length() ? s.charAt(d) : -1;
+    }
+
+    /* sort a[lo..hi], all of which agree on chars 0..d-1 */
+    private static void threeWayStringSort( String a[], int lo, int hi, int d )
+    {
+	while (hi > lo) {
+	    if (hi - lo < 8) {
+		for (int i = lo + 1; i <= hi; i++)
+		    for (int j = i; j > lo && a[j].compareTo(a[j-1]) < 0; j--) {
+			String t = a[j]; a[j] = a[j-1]; a[j-1] = t;
+		    }
+		return;
+	    }
+	    // median of three as pivot, moved to lo
+	    int mid = (lo + hi) >>> 1;
+	    int x = charAt(a[lo], d), y = charAt(a[mid], d), z = charAt(a[hi], d);
+	    int m = (x < y) ? ((y < z) ? mid : (x < z) ? hi : lo)
+		: ((x < z) ? lo : (y < z) ? hi : mid);
+	    String t = a[lo]; a[lo] = a[m]; a[m] = t;
+
+	    int lt = lo, gt = hi, i = lo + 1;
+	    int v = charAt(a[lo], d);
+	    while (i <= gt) {
+		int c = charAt(a[i], d);
+		if (c < v) { t = a[lt]; a[lt++] = a[i]; a[i++] = t; }
+		else if (c > v) { t = a[i]; a[i] = a[gt]; a[gt--] = t; }
+		else i++;
+	    }
+	    // recurse on the smaller outer parts, loop on the rest
+	    threeWayStringSort(a, lo, lt - 1, d);
+	    threeWayStringSort(a, gt + 1, hi, d);
+	    if (v < 0) return;
+	    lo = lt; hi = gt; d++;
+	}
+    }
+
     /** swap two elements of an array */
     public static void swap( int c[], int first, int second )
     {
@@ -76,17 +1236,42 @@ public class Sorts extends TestRuntime  {
 	c[ second ] = hold;
     }
 
+    /** Reseed the generator used by randomArray and friends. */
+    public static void setSeed( long seed ) {
+	rand.setSeed(seed);
+    }
+
     /** Fills array with random numbers from 1 to maxnum.
 	PRE: a.length > 0
     */
 
     public static void randomArray( int a[] , int maxnum ) {
 	for (int i = 0; i < a.length; i++) {
-	    a[i] = 1 + (int)(Math.random() * maxnum);
+	    a[i] = 1 + rand.nextInt(maxnum);
 	}
 
     }
 
+    /** Fills array with keys of one of the Workload kinds ("uniform",
+	"zipf", "sorted", "reverse", "fewunique", "organpipe",
+	"sawtooth"), drawn from the same seeded generator as randomArray.
+    */
+    public static void workloadArray( int a[], String kind ) {
+	int keys[] = new Workload(rand.nextLong()).generate(kind, a.length);
+	System.arraycopy(keys, 0, a, 0, a.length);
+    }
+
+    /** Fills array with numbers from 1 to maxnum that are sorted
+	except for a random tail holding a fraction disorder of the
+	elements.  disorder 0 gives a sorted array, 1 a random one.
+	PRE: a.length > 0
+    */
+    public static void nearlySortedArray( int a[], int maxnum, double disorder ) {
+	randomArray(a, maxnum);
+	int sorted = (int) (a.length * (1.0 - disorder));
+	Arrays.sort(a, 0, sorted);
+    }
+
     /*
       Test that all elements of b are found in a.
       Test whether a, a sorted array, contains all elements of b.
@@ -103,13 +1288,180 @@ public class Sorts extends TestRuntime  {
     }
 
     
+    /* sort a with the method of the given name */
+    private static void sort(String method, int a[]) {
+	long start = Metrics.now();
+	sortWith(method, a);
+	if (Metrics.ENABLED)
+	    Metrics.histogram("sorts." + method + ".nanos").recordSince(start);
+    }
+
+    private static void sortWith(String method, int a[]) {
+	if (method.equals("bubble")) bubbleSort(a);
+	else if (method.equals("insert")) insertionSort(a);
+	else if (method.equals("merge")) mergeSort(a);
+	else if (method.equals("pmerge")) parallelMergeSort(a);
+	else if (method.equals("quick")) quickSort(a);
+	else if (method.equals("pquick")) parallelQuickSort(a);
+	else if (method.equals("radix")) radixSort(a);
+	else if (method.equals("pradix")) parallelRadixSort(a);
+	else if (method.equals("adaptive")) adaptiveSort(a);
+	else if (method.equals("jdk")) Arrays.sort(a);
+	else if (method.equals("jdkpar")) Arrays.parallelSort(a);
+	else throw new IllegalArgumentException("Unknown sort " + method);
+    }
+
+    /*
+      Time the O(n log n) and radix sorts, and the JDK sorts, on
+      arrays of size n of every Workload kind.  Each result is checked
+      with testArray.
+    */
+    private static void benchmark(int n) {
+	String[] methods = {"merge","pmerge","quick","pquick","radix","pradix",
+			    "jdk","jdkpar"};
+	for (String kind : Workload.KINDS) {
+	    int nums[] = new int[n];
+	    Sorts.workloadArray(nums, kind);
+	    for (int round = 0; round < 3; round++) {
+		StringBuilder line = new StringBuilder("n=" + n + " " + kind + ":");
+		for (String method : methods) {
+		    int a[] = nums.clone();
+		    long start = System.nanoTime();
+		    sort(method, a);
+		    long elapsed = System.nanoTime() - start;
+		    if (!Sorts.testArray(a, nums.clone())) {
+			System.out.println("Failed sort test " + method);
+			System.exit(-1);
+		    }
+		    line.append(String.format(" %s %.1f ms", method, elapsed / 1e6));
+		}
+		System.out.println(line);
+	    }
+	}
+    }
+
+    /*
+      Check select, partialSort and topK, and their parallel versions,
+      on a: a[k] must be the element of rank k with the smaller ones
+      before it, a[0..k-1] sorted, and topK the k largest.  k may be
+      a.length, then only partialSort and topK are checked.
+    */
+    private static boolean testSelect( int a[], int k, boolean parallel )
+    {
+	int sorted[] = a.clone();
+	Arrays.sort(sorted);
+	int b[] = a.clone();
+	if (k < a.length) {
+	    int x = parallel ? parallelSelect(b, k) : select(b, k);
+	    if (x != sorted[k] || b[k] != x) return false;
+	    for (int i = 0; i < b.length; i++)
+		if (i < k ? b[i] > x : b[i] < x) return false;
+	    if (!samePermutation(b, a)) return false;
+	}
+
+	b = a.clone();
+	if (parallel) parallelPartialSort(b, k);
+	else partialSort(b, k);
+	for (int i = 0; i < k; i++) if (b[i] != sorted[i]) return false;
+	if (!samePermutation(b, a)) return false;
+
+	int top[] = parallel ? parallelTopK(a, k) : topK(a, k);
+	if (top.length != k) return false;
+	for (int i = 0; i < k; i++) if (top[i] != sorted[a.length - 1 - i]) return false;
+	return true;
+    }
+
+    /* are a and b permutations of each other? */
+    private static boolean samePermutation( int a[], int b[] )
+    {
+	int c[] = a.clone();
+	Arrays.sort(c);
+	return testArray(c, b.clone());
+    }
+
+    /*
+      Time select, partialSort and topK against a full sort, for the
+      median and for the top 1000 of arrays of size n.
+    */
+    private static void selectBenchmark(int n) {
+	String[] methods = {"select","pselect","partial","ppartial","topk","ptopk",
+			    "quick","jdkpar"};
+	int nums[] = new int[n];
+	Sorts.randomArray(nums, Integer.MAX_VALUE);
+	for (int k : new int[] {n / 2, Math.min(1000, n)}) {
+	    for (int round = 0; round < 3; round++) {
+		StringBuilder line = new StringBuilder("n=" + n + " k=" + k + ":");
+		for (String method : methods) {
+		    int a[] = nums.clone();
+		    long start = System.nanoTime();
+		    switch (method) {
+		    case "select": select(a, n - k); break;
+		    case "pselect": parallelSelect(a, n - k); break;
+		    case "partial": partialSort(a, k); break;
+		    case "ppartial": parallelPartialSort(a, k); break;
+		    case "topk": topK(a, k); break;
+		    case "ptopk": parallelTopK(a, k); break;
+		    default: sort(method, a);
+		    }
+		    long elapsed = System.nanoTime() - start;
+		    line.append(String.format(" %s %.1f ms", method, elapsed / 1e6));
+		}
+		System.out.println(line);
+	    }
+	}
+    }
+
+    /*
+      Time adaptiveSort against insertionSort and bubbleSort on arrays
+      of size n with increasingly long random tails.
+    */
+    private static void presortedBenchmark(int n) {
+	String[] methods = {"adaptive","insert","bubble"};
+	double[] levels = {0.0, 0.001, 0.01, 0.1, 0.5, 1.0};
+	for (double disorder : levels) {
+	    int nums[] = new int[n];
+	    Sorts.nearlySortedArray(nums, n, disorder);
+	    StringBuilder line = new StringBuilder(
+		String.format("n=%d disorder=%.3f:", n, disorder));
+	    for (String method : methods) {
+		int a[] = nums.clone();
+		long start = System.nanoTime();
+		sort(method, a);
+		long elapsed = System.nanoTime() - start;
+		if (!Sorts.testArray(a, nums.clone())) {
+		    System.out.println("Failed sort test " + method);
+		    System.exit(-1);
+		}
+		line.append(String.format(" %s %.2f ms", method, elapsed / 1e6));
+	    }
+	    System.out.println(line);
+	}
+    }
+
     /**
        Test the various sort algorithms for correctness.
+       USAGE: java Sorts N            (test)
+       USAGE: java Sorts N bench      (time sorts of an array of size N)
+       USAGE: java Sorts N presorted  (time sorts of nearly sorted arrays)
+       USAGE: java Sorts N select     (time selection against sorting)
     */
     public static void main(String[] args) {
 	int N = Integer.parseInt(args[0]);
+	if (args.length > 1 && args[1].equals("bench")) {
+	    benchmark(N);
+	    return;
+	}
+	if (args.length > 1 && args[1].equals("presorted")) {
+	    presortedBenchmark(N);
+	    return;
+	}
+	if (args.length > 1 && args[1].equals("select")) {
+	    selectBenchmark(N);
+	    return;
+	}
 	
-	String[] methods = {"bubble","insert"};
+	String[] methods = {"bubble","insert","merge","pmerge","quick","pquick",
+			    "radix","pradix","adaptive"};
 	int nums[], numscpy[];
 	// test sorts for N arrays of size N.
 		for (String method : methods) {
@@ -119,10 +1471,7 @@ public class Sorts extends TestRuntime  {
 		Sorts.randomArray(nums,nums.length);
 		numscpy = nums.clone();
 		// Use one of the sorting methods
-		if (method.equals("bubble"))
-		    Sorts.insertionSort(nums);
-		else if (method.equals("insert"))
-		    Sorts.insertionSort(nums);
+		sort(method, nums);
 		// Test the sort used for correctness.
 		if (!Sorts.testArray(nums,numscpy)) {
 		    System.out.println("Failed sort test " + i);
@@ -131,6 +1480,60 @@ public class Sorts extends TestRuntime  {
 	    }
 	}
 
+	// test the sorts on arrays above PARALLEL_THRESHOLD, so the
+	// parallel ones split into tasks.
+	for (String method : new String[] {"merge","pmerge","quick","pquick",
+					   "radix","pradix","adaptive"}) {
+	    for (String kind : Workload.KINDS) {
+		nums = new int[1 << 17];
+		Sorts.workloadArray(nums, kind);
+		numscpy = nums.clone();
+		sort(method, nums);
+		if (!Sorts.testArray(nums,numscpy)) {
+		    System.out.println("Failed sort test " + method + " " + kind);
+		    System.exit(-1);
+		}
+	    }
+	}
+
+	// test selection for N arrays of size N, with many duplicates
+	// too, and on arrays large enough for the parallel versions.
+	for (int i = 1; i < N; i++) {
+	    nums = new int[i];
+	    Sorts.randomArray(nums, (i % 2 == 0) ? nums.length : 4);
+	    if (!testSelect(nums, rand.nextInt(i + 1), false)
+		|| !testSelect(nums, 0, false) || !testSelect(nums, i, false)) {
+		System.out.println("Failed select test " + i);
+		System.exit(-1);
+	    }
+	}
+	for (String kind : Workload.KINDS) {
+	    nums = new int[1 << 17];
+	    Sorts.workloadArray(nums, kind);
+	    for (int k : new int[] {0, 1000, nums.length / 2, nums.length - 1, nums.length}) {
+		if (!testSelect(nums, k, false) || !testSelect(nums, k, true)) {
+		    System.out.println("Failed select test " + kind + " k=" + k);
+		    System.exit(-1);
+		}
+	    }
+	}
+
+	// test the String sorts on N arrays of random words.
+	for (int i = 1; i < N; i++) {
+	    String words[] = new String[i];
+	    for (int j = 0; j < i; j++)
+		words[j] = Integer.toString(rand.nextInt(i), 36 - j % 20);
+	    String expect[] = words.clone();
+	    Arrays.sort(expect);
+	    String msd[] = words.clone();
+	    Sorts.msdRadixSort(msd);
+	    Sorts.threeWayStringSort(words);
+	    if (!Arrays.equals(msd, expect) || !Arrays.equals(words, expect)) {
+		System.out.println("Failed string sort test " + i);
+		System.exit(-1);
+	    }
+	}
+
 	// test binary search for N arrays.
 	for (int i = N-1; i < N; i++) {
 	    // create arrays
@@ -145,8 +1548,16 @@ public class Sorts extends TestRuntime  {
 		    System.exit(-1);
 		    
 		}
+		if (!Searches.interpolationSearch(x,nums) ||
+		    !Searches.exponentialSearch(x,nums) ||
+		    !Searches.adaptiveSearch(x,nums) ||
+		    !Searches.learnedSearch(x,nums)) {
+		    System.out.println("Failed interpolation/exponential/learned search test");
+		    System.exit(-1);
+		}
 	    }
 	}
+	if (Metrics.ENABLED) System.out.print(Metrics.snapshot().toText());
     }
 
 } // end of Sorts
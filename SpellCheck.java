@@ -5,15 +5,23 @@
  */
 
 import java.io.*;   // for IO
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SpellCheck {
     public static final int NOT_FOUND = -1;
+    // lines handed to a worker at a time in batch mode
+    private static final int LINES_PER_CHUNK = 1024;
     // default values for dictionary and document
     private static String dictFilename = "./";
     private static String docFilename = "dictionary.txt";
     private String [] dictionary; // Array of words in dictionary.
+    private long [] prefixes; // packed first chars of each word, for search
 
     /*
       Load dictionary used for spell checking
@@ -36,7 +44,15 @@ public class SpellCheck {
 		words.add( s );
 	    }
 	    // convert arraylist to an array
-	    this.dictionary = words.toArray(new String [1]);
+	    this.dictionary = words.toArray(new String [0]);
+	    // binary search needs the words in order
+	    for (int i = 1; i < dictionary.length; i++) {
+		if (dictionary[i-1].compareTo(dictionary[i]) > 0) {
+		    Sorts.stringSort(dictionary);
+		    break;
+		}
+	    }
+	    this.prefixes = BranchlessSearch.prefixes(dictionary);
 	} catch (IOException ex) {
 	    System.err.println("Error reading " + filename);
 	    return;
@@ -56,33 +72,11 @@ public class SpellCheck {
     public int indexOf(String key) {
         if (key == null)
 	    throw new IllegalArgumentException("argument to indexOf() is null"); 
-	return indexOf(dictionary, key ,0,dictionary.length-1);
+	int i = BranchlessSearch.lowerBound(dictionary, prefixes, key);
+	if (i < dictionary.length && dictionary[i].equals(key)) return i;
+	return NOT_FOUND;
     }
 
-    /**
-       @return index in array of key or NOT_FOUND if not found
-       Uses String compareTo method.
-    */
-    private int indexOf(String[ ] arr, String target, int low, int hi) {
-		int mid=(low+hi)/2;
-		
-		int key=target.compareTo(arr[mid]);
-		
-		//if not found
-		if(low>hi){
-			return NOT_FOUND;
-		}
-		
-		//base case 
-		if (key==0) return mid;
-		
-		if (key < 0) { //if target string is lower than mid
-			return indexOf(arr, target, low, mid-1);
-		}
-
-		else
-			return indexOf(arr, target, mid+1, hi);	
-	}
 
  /**
        Places all permutations of s into strings.
@@ -100,7 +94,7 @@ public class SpellCheck {
 	    strings.add(prefix );
 	}
 	else {
-		for (int is; i < n ; i++) {
+		for (int i = 0; i < n ; i++) {
 			perm(prefix+s.charAt(i),s.substring(0,i) + s.substring(i+1,n), strings);
 			}
 
@@ -124,17 +118,180 @@ public class SpellCheck {
     }
 
 
+    /*
+      A block of consecutive document lines.  firstLine is the 1-based
+      line number of lines[0].
+    */
+    private static class Chunk {
+	final String file;
+	final int firstLine;
+	final String[] lines;
+
+	Chunk(String file, int firstLine, String[] lines) {
+	    this.file = file;
+	    this.firstLine = firstLine;
+	    this.lines = lines;
+	}
+    }
+
+    /*
+      Result of checking one chunk: misspellings formatted as
+      "file:line:col word", one per line, and the number of words seen.
+    */
+    private static class ChunkResult {
+	final String report;
+	final long words;
+
+	ChunkResult(String report, long words) {
+	    this.report = report;
+	    this.words = words;
+	}
+    }
+
+    /*
+      Check every word of a chunk.  A word is a maximal run of letters
+      and apostrophes; it is looked up as is and then in lower case.
+      Only reads the dictionary, so many workers can share one checker.
+    */
+    private ChunkResult checkChunk(Chunk chunk) {
+	StringBuilder report = new StringBuilder();
+	long words = 0;
+	for (int i = 0; i < chunk.lines.length; i++) {
+	    String line = chunk.lines[i];
+	    int col = 0;
+	    int len = line.length();
+	    while (col < len) {
+		if (!isWordChar(line.charAt(col))) { col++; continue; }
+		int start = col;
+		while (col < len && isWordChar(line.charAt(col))) col++;
+		String word = line.substring(start, col);
+		words++;
+		if (indexOf(word) == NOT_FOUND &&
+		    indexOf(word.toLowerCase()) == NOT_FOUND) {
+		    report.append(chunk.file).append(':')
+			.append(chunk.firstLine + i).append(':')
+			.append(start + 1).append(' ')
+			.append(word).append('\n');
+		}
+	    }
+	}
+	return new ChunkResult(report.toString(), words);
+    }
+
+    private static boolean isWordChar(char c) {
+	return Character.isLetter(c) || c == '\'';
+    }
+
+    /**
+       Spell check a document, or every regular file in a directory,
+       with a pool of worker threads.  The input is read a chunk of
+       lines at a time, so files of any size can be checked.
+       Misspellings are printed to out in document order as
+       "file:line:col word".
+
+       @param path document or directory of documents.
+       @param nthreads number of worker threads.
+       @param out where misspellings are printed.
+       @return number of words checked.
+    */
+    public long checkDocuments(File path, int nthreads, PrintStream out)
+	throws IOException {
+	File[] files;
+	if (path.isDirectory()) {
+	    files = path.listFiles(File::isFile);
+	    if (files == null) throw new IOException("Cannot list " + path);
+	    Arrays.sort(files);
+	} else {
+	    files = new File[] { path };
+	}
+
+	ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+	// chunks in flight, oldest first.  Bounded so the reader can't
+	// run far ahead of the workers.
+	ArrayDeque<Future<ChunkResult>> pending =
+	    new ArrayDeque<Future<ChunkResult>>();
+	int maxPending = 4 * nthreads;
+	long words = 0;
+	try {
+	    for (File f : files) {
+		BufferedReader reader = new BufferedReader(new FileReader(f));
+		try {
+		    ArrayList<String> lines = new ArrayList<String>();
+		    int firstLine = 1;
+		    String s;
+		    while (true) {
+			s = reader.readLine();
+			if (s != null) lines.add(s);
+			if (lines.size() == LINES_PER_CHUNK ||
+			    (s == null && !lines.isEmpty())) {
+			    final Chunk chunk = new Chunk(f.getPath(), firstLine,
+						  lines.toArray(new String[0]));
+			    firstLine += lines.size();
+			    lines.clear();
+			    pending.add(pool.submit(() -> checkChunk(chunk)));
+			    while (pending.size() > maxPending)
+				words += drain(pending.poll(), out);
+			}
+			if (s == null) break;
+		    }
+		} finally {
+		    reader.close();
+		}
+	    }
+	    while (!pending.isEmpty())
+		words += drain(pending.poll(), out);
+	} finally {
+	    pool.shutdownNow();
+	}
+	return words;
+    }
+
+    /* wait for a chunk, print its misspellings and return its word count */
+    private static long drain(Future<ChunkResult> f, PrintStream out)
+	throws IOException {
+	ChunkResult r;
+	try {
+	    r = f.get();
+	} catch (InterruptedException ex) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("Spell check interrupted");
+	} catch (ExecutionException ex) {
+	    throw new IOException("Spell check failed", ex.getCause());
+	}
+	out.print(r.report);
+	return r.words;
+    }
+
     /**
        Looks up all permutations of a string in the dictionary.
        USAGE: java SpellCheck dictionaryFile jumbled_letters
+       or, to check a document or a directory of documents,
+       USAGE: java SpellCheck dictionaryFile -batch doc_or_dir [threads]
      */
     public static void main(String[] args)
 	throws FileNotFoundException, IOException {
 	int minlen;
+	if (args.length < 2 || (args[1].equals("-batch") && args.length < 3)) {
+	    System.err.println("USAGE: java SpellCheck dictionaryFile jumbled_letters");
+	    System.err.println("USAGE: java SpellCheck dictionaryFile -batch doc_or_dir [threads]");
+	    System.exit(-1);
+	}
 	String dictionaryFile = args[0];
 	String letters = args[1];
 	
 	SpellCheck checker = new SpellCheck(dictionaryFile);
+
+	if (letters.equals("-batch")) {
+	    int nthreads = Runtime.getRuntime().availableProcessors();
+	    if (args.length > 3) nthreads = Integer.parseInt(args[3]);
+	    long startTime = System.nanoTime();
+	    long words = checker.checkDocuments(new File(args[2]), nthreads,
+						System.out);
+	    double secs = (System.nanoTime() - startTime) / 1e9;
+	    System.err.printf("Checked %d words in %.3f s (%.0f words/sec)%n",
+			      words, secs, words / secs);
+	    return;
+	}
 	
 	int indexOf = checker.indexOf(letters);
 	if (indexOf == SpellCheck.NOT_FOUND)
@@ -0,0 +1,275 @@
+/**
+   A BinarySearchTree that splays: every getElement, addElement and
+   removeElement moves the node it touches to the root (Sleator and
+   Tarjan, 1985).  Operations take amortized O(log n), and keys that
+   are looked up often stay near the root, so under skewed access hot
+   keys are found in a step or two.  This is the self-organizing idea
+   of SelfOrganizingST applied to trees.
+
+   Splaying is top-down and iterative, and keeps subtree sizes up to
+   date, so the drawing and snapshot code of BinarySearchTree work
+   unchanged.  Rotations can move a key below an equal one on either
+   side, so equal keys are only guaranteed to be in order, not to the
+   right of each other.
+
+   Splaying writes to every node on the path, which costs more than
+   the search itself.  With minDepth > 0 a lookup that finds its key
+   within minDepth levels of the root leaves the tree as it is; hot
+   keys then stay near the top without being splayed again and again.
+
+   USAGE: java SplayTree [n] [lookups] [zipf exponent]
+*/
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class SplayTree<TYPE extends Comparable> extends BinarySearchTree<TYPE> {
+    // holds the left and right trees while splaying
+    private final Node<TYPE> header = new Node<TYPE>(null);
+    private final int minDepth; // shallower lookups do not splay
+
+    public SplayTree() { this(0); }
+
+    /**
+       @param minDepth lookups ending at most this deep do not splay;
+       0 splays every lookup.
+    */
+    public SplayTree(int minDepth) {
+	super();
+	this.minDepth = minDepth;
+    }
+
+    /**
+       Adds an element to the tree, as the new root.
+    */
+    public void addElement(TYPE o) {
+	BTNode<TYPE> n = newNode(o);
+	if (root != null) {
+	    BTNode<TYPE> t = splay(o, root);
+	    if (o.compareTo(t.element) < 0) {
+		n.left = t.left;
+		n.right = t;
+		t.left = null;
+	    }
+	    else {
+		n.right = t.right;
+		n.left = t;
+		t.right = null;
+	    }
+	    ((Node) t).size = 1 + size(t.left) + size(t.right);
+	    ((Node) n).size = 1 + size(n.left) + size(n.right);
+	}
+	root = n;
+    }
+
+    /**
+       Return element that is equivalent to o, now at the root unless
+       it was found within minDepth levels.
+       Return null if no match is found.
+    */
+    public TYPE getElement(TYPE o) {
+	if (o == null || root == null) return null;
+	if (minDepth > 0) {
+	    BTNode<TYPE> p = root;
+	    for (int d = 0; p != null && d <= minDepth; d++) {
+		int cmp = o.compareTo(p.element);
+		if (cmp == 0) return p.element;
+		p = cmp < 0 ? p.left : p.right;
+	    }
+	    if (p == null) return null;
+	}
+	root = splay(o, root);
+	return o.compareTo(root.element) == 0 ? root.element : null;
+    }
+
+    /**
+       Remove element with matching key and return it.
+       Returns null if no match found.
+    */
+    public TYPE removeElement(TYPE o) {
+	if (o == null || root == null) return null;
+	BTNode<TYPE> t = splay(o, root);
+	root = t;
+	if (o.compareTo(t.element) != 0) return null;
+	if (t.left == null) root = t.right;
+	else {
+	    // the largest of the left subtree has no right child
+	    root = splay(null, t.left);
+	    root.right = t.right;
+	    ((Node) root).size = 1 + size(root.left) + size(root.right);
+	}
+	return t.element;
+    }
+
+    /*
+      Top-down splay of the subtree t for o, or for its largest
+      element if o is null.  Returns the new root, which holds o if
+      it is there, or else the last node on o's search path.
+      Keeps subtree sizes as in Sleator's top-down-size-splay.c: lsize
+      and rsize count the nodes hung on the left and right trees, and
+      the sizes along their inner spines are fixed at the end.
+    */
+    private BTNode<TYPE> splay(TYPE o, BTNode<TYPE> t) {
+	BTNode<TYPE> l = header, r = header, y;
+	header.left = header.right = null;
+	int lsize = 0, rsize = 0;
+	while (true) {
+	    int cmp = o == null ? 1 : o.compareTo(t.element);
+	    if (cmp < 0) {
+		if (t.left == null) break;
+		if (o.compareTo(t.left.element) < 0) { // rotate right
+		    y = t.left;
+		    t.left = y.right;
+		    y.right = t;
+		    ((Node) t).size = 1 + size(t.left) + size(t.right);
+		    t = y;
+		    if (t.left == null) break;
+		}
+		r.left = t; // link right
+		r = t;
+		t = t.left;
+		rsize += 1 + size(r.right);
+	    }
+	    else if (cmp > 0) {
+		if (t.right == null) break;
+		if (o == null || o.compareTo(t.right.element) > 0) { // rotate left
+		    y = t.right;
+		    t.right = y.left;
+		    y.left = t;
+		    ((Node) t).size = 1 + size(t.left) + size(t.right);
+		    t = y;
+		    if (t.right == null) break;
+		}
+		l.right = t; // link left
+		l = t;
+		t = t.right;
+		lsize += 1 + size(l.left);
+	    }
+	    else break;
+	}
+	lsize += size(t.left);
+	rsize += size(t.right);
+	((Node) t).size = lsize + rsize + 1;
+
+	l.right = r.left = null;
+	for (y = header.right; y != null; y = y.right) {
+	    ((Node) y).size = lsize;
+	    lsize -= 1 + size(y.left);
+	}
+	for (y = header.left; y != null; y = y.left) {
+	    ((Node) y).size = rsize;
+	    rsize -= 1 + size(y.right);
+	}
+
+	l.right = t.left; // assemble
+	r.left = t.right;
+	t.left = header.right;
+	t.right = header.left;
+	header.left = header.right = null;
+	return t;
+    }
+
+    /* check order and sizes of the subtree t; returns its size */
+    private static <T extends Comparable> int check(BTNode<T> t, T lo, T hi) {
+	if (t == null) return 0;
+	if ((lo != null && t.element.compareTo(lo) < 0)
+	    || (hi != null && t.element.compareTo(hi) > 0))
+	    throw new IllegalStateException("out of order at " + t.element);
+	int n = 1 + check(t.left, lo, t.element) + check(t.right, t.element, hi);
+	if (n != size(t)) throw new IllegalStateException("bad size at " + t.element);
+	return n;
+    }
+
+    /*
+      Check splaying against TreeMap, then time lookups of a Zipfian
+      trace of keys on a plain tree, a splay tree and a balanced one
+      (TreeMap, a red-black tree), all built from the same keys.
+    */
+    public static void main(String[] args) {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+	int m = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+	double s = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+	Workload work = new Workload(42);
+
+	// random adds, finds and removes, compared with a TreeMap of counts
+	int ops[] = work.uniform(200_000, 3), ks[] = work.uniform(200_000, 1000);
+	for (int md = 0; md <= 3; md += 3) {
+	    SplayTree<Integer> test = new SplayTree<Integer>(md);
+	    TreeMap<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+	    for (int i = 0; i < ops.length; i++) {
+		Integer k = ks[i];
+		boolean ok;
+		if (ops[i] == 0) {
+		    test.addElement(k);
+		    counts.merge(k, 1, Integer::sum);
+		    ok = test.root.element.equals(k);
+		}
+		else if (ops[i] == 1) {
+		    ok = (test.getElement(k) != null) == counts.containsKey(k);
+		}
+		else {
+		    ok = (test.removeElement(k) != null) == counts.containsKey(k);
+		    if (counts.containsKey(k) && counts.merge(k, -1, Integer::sum) == 0)
+			counts.remove(k);
+		}
+		if (!ok) {
+		    System.out.println("Failed splay tree test at op " + i);
+		    System.exit(-1);
+		}
+	    }
+	    SplayTree.<Integer>check(test.root, null, null);
+	    int total = 0;
+	    for (int c : counts.values()) total += c;
+	    if (total != test.size()) {
+		System.out.println("Failed splay tree size test");
+		System.exit(-1);
+	    }
+	}
+
+	// random keys; hot ones are random too, not the smallest
+	Integer keys[] = new Integer[n];
+	int perm[] = work.uniform(n, Integer.MAX_VALUE);
+	for (int i = 0; i < n; i++) keys[i] = perm[i];
+	Integer trace[] = new Integer[m];
+	int ranks[] = work.zipf(m, n, s);
+	for (int i = 0; i < m; i++) trace[i] = keys[ranks[i]];
+
+	BinarySearchTree<Integer> plain = new BinarySearchTree<Integer>();
+	SplayTree<Integer> splay = new SplayTree<Integer>();
+	SplayTree<Integer> lazy = new SplayTree<Integer>(8);
+	TreeMap<Integer, Integer> balanced = new TreeMap<Integer, Integer>();
+	// insert in an order unrelated to hotness, else hot keys sit at the top
+	Integer order[] = keys.clone();
+	Collections.shuffle(Arrays.asList(order), new Random(7));
+	for (Integer k : order) {
+	    plain.addElement(k);
+	    splay.addElement(k);
+	    lazy.addElement(k);
+	    balanced.put(k, k);
+	}
+
+	System.out.printf("%d keys, %d Zipf(%.2f) lookups, ns/op%n", n, m, s);
+	System.out.printf("%-6s %8s %8s %10s %9s%n", "round", "plain", "splay",
+			  "splay(8)", "balanced");
+	for (int round = 0; round < 3; round++) {
+	    long t0 = System.nanoTime(), hits = 0;
+	    for (Integer k : trace) if (plain.getElement(k) != null) hits++;
+	    long t1 = System.nanoTime();
+	    for (Integer k : trace) if (splay.getElement(k) != null) hits++;
+	    long t2 = System.nanoTime();
+	    for (Integer k : trace) if (lazy.getElement(k) != null) hits++;
+	    long t3 = System.nanoTime();
+	    for (Integer k : trace) if (balanced.get(k) != null) hits++;
+	    long t4 = System.nanoTime();
+	    if (hits != 4L * m) {
+		System.out.println("Failed lookup test");
+		System.exit(-1);
+	    }
+	    System.out.printf("%-6d %8.1f %8.1f %10.1f %9.1f%n", round,
+			      (double) (t1 - t0) / m, (double) (t2 - t1) / m,
+			      (double) (t3 - t2) / m, (double) (t4 - t3) / m);
+	}
+    }
+}
@@ -0,0 +1,568 @@
+/*
+  Compact binary snapshots of a BinarySearchTree, so a tree can be
+  reloaded after a restart instead of rebuilt by replaying adds.
+
+  A snapshot starts with a header: magic "BSTS", format version,
+  layout, flags, name of the key codec and number of keys.  Two
+  layouts:
+
+  PREORDER  keys in preorder, in blocks of 32, each block led by a
+            long holding two structure bits per node (has left, has
+            right child).  Loads back to exactly the same shape.
+  SORTED    keys in order.  Loads back as a perfectly balanced tree.
+
+  Either way loading is O(n) and compares no keys (except equals()
+  between neighbours when a sorted snapshot has duplicates).  Files
+  are written and read through FileChannels with 64K buffers.
+
+  A snapshot of a multiset tree (flag MULTISET) stores one key per
+  node followed by its count, and loads back into a multiset tree.
+  Version 1 snapshots, which have no flags, can still be loaded.
+
+  Keys are written by a KeyCodec.  Codecs for Integer, Long and
+  String are built in; others can be added with register().
+
+  USAGE: java TreeSnapshot [n] [file]   (round trip test, default 10M keys)
+*/
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TreeSnapshot {
+    public static final int MAGIC = 0x42535453; // "BSTS"
+    public static final int VERSION = 2;
+    private static final int MULTISET = 1;        // header flag
+
+    public enum Layout { PREORDER, SORTED }
+
+    private static final int BLOCK = 32;          // nodes per structure word
+    private static final long HAS_LEFT = 1, HAS_RIGHT = 2;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    /** Writes and reads keys of one type. */
+    public interface KeyCodec<T> {
+	/** Name stored in the snapshot header to find the codec again. */
+	String name();
+	void write(Out out, T key) throws IOException;
+	T read(In in) throws IOException;
+    }
+
+    public static final KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+	public String name() { return "int"; }
+	public void write(Out out, Integer key) throws IOException { out.putInt(key); }
+	public Integer read(In in) throws IOException { return in.getInt(); }
+    };
+
+    public static final KeyCodec<Long> LONG = new KeyCodec<Long>() {
+	public String name() { return "long"; }
+	public void write(Out out, Long key) throws IOException { out.putLong(key); }
+	public Long read(In in) throws IOException { return in.getLong(); }
+    };
+
+    public static final KeyCodec<String> STRING = new KeyCodec<String>() {
+	public String name() { return "utf8"; }
+	public void write(Out out, String key) throws IOException {
+	    out.putBytes(key.getBytes(StandardCharsets.UTF_8));
+	}
+	public String read(In in) throws IOException {
+	    return new String(in.getBytes(), StandardCharsets.UTF_8);
+	}
+    };
+
+    private static final ConcurrentHashMap<String, KeyCodec<?>> codecs =
+	new ConcurrentHashMap<String, KeyCodec<?>>();
+    static {
+	register(INTEGER);
+	register(LONG);
+	register(STRING);
+    }
+
+    private TreeSnapshot() { }
+
+    /** Make codec available to load() under its name. */
+    public static void register(KeyCodec<?> codec) {
+	codecs.put(codec.name(), codec);
+    }
+
+    /**
+       Write the keys of tree to file.
+       @return number of keys written, one per node in a multiset tree.
+    */
+    public static <T extends Comparable> long save(BinarySearchTree<T> tree, Path file,
+						   KeyCodec<? super T> codec, Layout layout)
+	throws IOException {
+	long n = BinarySearchTree.size(tree.root);
+	try (Out out = new Out(FileChannel.open(file, StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING))) {
+	    out.putInt(MAGIC);
+	    out.putShort(VERSION);
+	    out.putByte(layout.ordinal());
+	    out.putByte(tree.multiset ? MULTISET : 0);
+	    out.putBytes(codec.name().getBytes(StandardCharsets.UTF_8));
+	    out.putLong(n);
+	    if (layout == Layout.PREORDER) writePreorder(tree.root, out, codec, tree.multiset);
+	    else writeInorder(tree.root, out, codec, tree.multiset);
+	}
+	return n;
+    }
+
+    /* nodes in preorder, a structure word before each block of BLOCK */
+    private static <T extends Comparable> void writePreorder(BTNode<T> root, Out out,
+							    KeyCodec<? super T> codec,
+							    boolean counts)
+	throws IOException {
+	BTNode<T> block[] = new BTNode[BLOCK];
+	int nblock = 0;
+	ArrayDeque<BTNode<T>> stack = new ArrayDeque<BTNode<T>>();
+	if (root != null) stack.push(root);
+	while (!stack.isEmpty() || nblock > 0) {
+	    if (!stack.isEmpty()) {
+		BTNode<T> t = stack.pop();
+		block[nblock++] = t;
+		if (t.right != null) stack.push(t.right);
+		if (t.left != null) stack.push(t.left);
+	    }
+	    if (nblock == BLOCK || (stack.isEmpty() && nblock > 0)) {
+		long bits = 0;
+		for (int i = 0; i < nblock; i++) {
+		    if (block[i].left != null) bits |= HAS_LEFT << (2 * i);
+		    if (block[i].right != null) bits |= HAS_RIGHT << (2 * i);
+		}
+		out.putLong(bits);
+		for (int i = 0; i < nblock; i++) writeKey(out, block[i], codec, counts);
+		nblock = 0;
+	    }
+	}
+    }
+
+    private static <T extends Comparable> void writeInorder(BTNode<T> root, Out out,
+							   KeyCodec<? super T> codec,
+							   boolean counts)
+	throws IOException {
+	ArrayDeque<BTNode<T>> stack = new ArrayDeque<BTNode<T>>();
+	BTNode<T> t = root;
+	while (t != null || !stack.isEmpty()) {
+	    while (t != null) {
+		stack.push(t);
+		t = t.left;
+	    }
+	    t = stack.pop();
+	    writeKey(out, t, codec, counts);
+	    t = t.right;
+	}
+    }
+
+    private static <T extends Comparable> void writeKey(Out out, BTNode<T> t,
+							KeyCodec<? super T> codec,
+							boolean counts)
+	throws IOException {
+	codec.write(out, t.element);
+	if (counts) out.putInt(((BinarySearchTree.Node) t).count);
+    }
+
+    /**
+       Load a snapshot into a new tree, with the codec named in it.
+       The tree is a multiset tree if the snapshot is of one.
+    */
+    public static <T extends Comparable> BinarySearchTree<T> load(Path file)
+	throws IOException {
+	try (In in = new In(FileChannel.open(file, StandardOpenOption.READ))) {
+	    Header h = readHeader(file, in);
+	    BinarySearchTree<T> tree = new BinarySearchTree<T>((h.flags & MULTISET) != 0);
+	    readBody(file, in, h, tree);
+	    return tree;
+	}
+    }
+
+    /**
+       Replace the contents of tree with those of a snapshot.  The tree
+       must be a multiset tree exactly when the snapshot is of one.
+       @return number of keys loaded.
+    */
+    public static <T extends Comparable> long load(Path file, BinarySearchTree<T> tree)
+	throws IOException {
+	try (In in = new In(FileChannel.open(file, StandardOpenOption.READ))) {
+	    Header h = readHeader(file, in);
+	    if (((h.flags & MULTISET) != 0) != tree.multiset)
+		throw new IOException(file + ": snapshot is " + (tree.multiset ? "not " : "")
+				      + "of a multiset tree");
+	    readBody(file, in, h, tree);
+	    return h.n;
+	}
+    }
+
+    private static final class Header {
+	int layout, flags;
+	KeyCodec<?> codec;
+	int n;
+    }
+
+    private static Header readHeader(Path file, In in) throws IOException {
+	if (in.getInt() != MAGIC)
+	    throw new IOException(file + " is not a tree snapshot");
+	int version = in.getShort();
+	if (version < 1 || version > VERSION)
+	    throw new IOException(file + ": unsupported snapshot version " + version);
+	Header h = new Header();
+	h.layout = in.getByte();
+	h.flags = version >= 2 ? in.getByte() : 0;
+	String name = new String(in.getBytes(), StandardCharsets.UTF_8);
+	h.codec = codecs.get(name);
+	if (h.codec == null)
+	    throw new IOException(file + ": no key codec " + name);
+	long n = in.getLong();
+	if (n < 0 || n > Integer.MAX_VALUE)
+	    throw new IOException(file + ": bad number of keys, " + n);
+	h.n = (int) n;
+	return h;
+    }
+
+    private static <T extends Comparable> void readBody(Path file, In in, Header h,
+							BinarySearchTree<T> tree)
+	throws IOException {
+	KeyCodec<T> codec = (KeyCodec<T>) h.codec;
+	boolean counts = (h.flags & MULTISET) != 0;
+	tree.duplicates = 0;
+	if (h.layout == Layout.PREORDER.ordinal())
+	    tree.root = readPreorder(tree, in, codec, h.n, counts);
+	else if (h.layout == Layout.SORTED.ordinal())
+	    tree.root = readSorted(tree, in, codec, h.n, counts);
+	else
+	    throw new IOException(file + ": unknown layout " + h.layout);
+	tree.snapshotLoaded();
+    }
+
+    /* next key as a node, with its count if there is one */
+    private static <T extends Comparable> BTNode<T> readNode(BinarySearchTree<T> tree,
+							    In in, KeyCodec<T> codec,
+							    boolean counts)
+	throws IOException {
+	BTNode<T> t = tree.newNode(codec.read(in));
+	if (counts) {
+	    int c = in.getInt();
+	    if (c < 1) throw new IOException("corrupt snapshot count " + c);
+	    ((BinarySearchTree.Node) t).count = c;
+	    tree.duplicates += c - 1;
+	}
+	return t;
+    }
+
+    /*
+      Rebuild the shape from the structure bits.  The node after one
+      with a left child is that left child; after one with only a
+      right child, that right child; after a leaf, the right child of
+      the nearest node still waiting for one.
+    */
+    private static <T extends Comparable> BTNode<T> readPreorder(BinarySearchTree<T> tree,
+								In in, KeyCodec<T> codec,
+								int n, boolean counts)
+	throws IOException {
+	BTNode<T> nodes[] = new BTNode[n]; // for the sizes, in preorder
+	ArrayDeque<BTNode<T>> waiting = new ArrayDeque<BTNode<T>>();
+	BTNode<T> prev = null;
+	long prevBits = 0, bits = 0;
+	for (int i = 0; i < n; i++) {
+	    if (i % BLOCK == 0) bits = in.getLong();
+	    long b = (bits >>> (2 * (i % BLOCK))) & 3;
+	    BTNode<T> t = readNode(tree, in, codec, counts);
+	    nodes[i] = t;
+	    if (prev != null) {
+		if ((prevBits & HAS_LEFT) != 0) {
+		    prev.left = t;
+		    if ((prevBits & HAS_RIGHT) != 0) waiting.push(prev);
+		}
+		else if ((prevBits & HAS_RIGHT) != 0) prev.right = t;
+		else {
+		    if (waiting.isEmpty()) throw new IOException("corrupt snapshot structure");
+		    waiting.pop().right = t;
+		}
+	    }
+	    prev = t;
+	    prevBits = b;
+	}
+	if (!waiting.isEmpty() || prevBits != 0)
+	    throw new IOException("corrupt snapshot structure");
+	// children come after their parent in preorder
+	for (int i = n - 1; i >= 0; i--)
+	    ((BinarySearchTree.Node) nodes[i]).size =
+		1 + BinarySearchTree.size(nodes[i].left) + BinarySearchTree.size(nodes[i].right);
+	return n == 0 ? null : nodes[0];
+    }
+
+    /*
+      Balanced tree of keys read in order.  Equal keys must go right,
+      so each run of equal keys becomes a chain of right children: the
+      tree is balanced over the first nodes of the runs, and the last
+      node of a run holds the greater keys.  Runs are found in one
+      pass and the tree is built with a stack of ranges, so a long run
+      neither takes quadratic time nor overflows the call stack.
+    */
+    private static <T extends Comparable> BTNode<T> readSorted(BinarySearchTree<T> tree,
+							      In in, KeyCodec<T> codec, int n,
+							      boolean counts)
+	throws IOException {
+	if (n == 0) return null;
+	BTNode<T> nodes[] = new BTNode[n];
+	int start[] = new int[n + 1]; // first node of each run, then n
+	int runs = 0;
+	for (int i = 0; i < n; i++) {
+	    nodes[i] = readNode(tree, in, codec, counts);
+	    if (i == 0 || !nodes[i-1].element.equals(nodes[i].element)) start[runs++] = i;
+	    else nodes[i-1].right = nodes[i];
+	}
+	start[runs] = n;
+
+	// a range lo..hi-1 of runs with its side (0 for the root), and
+	// the node it hangs from
+	BTNode<T> root = null;
+	ArrayDeque<int[]> ranges = new ArrayDeque<int[]>();
+	ArrayDeque<BTNode<T>> parents = new ArrayDeque<BTNode<T>>();
+	ranges.push(new int[] {0, runs, 0});
+	parents.push(nodes[0]); // unused for the root
+	while (!ranges.isEmpty()) {
+	    int r[] = ranges.pop();
+	    BTNode<T> parent = parents.pop();
+	    int lo = r[0], hi = r[1];
+	    if (lo >= hi) continue;
+	    int mid = (lo + hi) >>> 1;
+	    BTNode<T> t = nodes[start[mid]];
+	    if (r[2] == 0) root = t;
+	    else if (r[2] < 0) parent.left = t;
+	    else parent.right = t;
+	    // each node of the run has the rest of the run and the greater keys below it
+	    ((BinarySearchTree.Node) t).size = start[hi] - start[lo];
+	    for (int i = start[mid] + 1; i < start[mid+1]; i++)
+		((BinarySearchTree.Node) nodes[i]).size = start[hi] - i;
+	    ranges.push(new int[] {lo, mid, -1});
+	    parents.push(t);
+	    ranges.push(new int[] {mid + 1, hi, 1});
+	    parents.push(nodes[start[mid+1] - 1]);
+	}
+	return root;
+    }
+
+    /** Buffered writer of primitives to a channel. */
+    public static final class Out implements AutoCloseable {
+	private final FileChannel ch;
+	private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+	Out(FileChannel ch) {
+	    this.ch = ch;
+	}
+
+	private void ensure(int n) throws IOException {
+	    if (buf.remaining() < n) flush();
+	}
+
+	private void flush() throws IOException {
+	    buf.flip();
+	    while (buf.hasRemaining()) ch.write(buf);
+	    buf.clear();
+	}
+
+	public void putByte(int v) throws IOException { ensure(1); buf.put((byte) v); }
+	public void putShort(int v) throws IOException { ensure(2); buf.putShort((short) v); }
+	public void putInt(int v) throws IOException { ensure(4); buf.putInt(v); }
+	public void putLong(long v) throws IOException { ensure(8); buf.putLong(v); }
+
+	/** Write a length, then the bytes. */
+	public void putBytes(byte b[]) throws IOException {
+	    putInt(b.length);
+	    for (int off = 0; off < b.length; ) {
+		ensure(1);
+		int k = Math.min(buf.remaining(), b.length - off);
+		buf.put(b, off, k);
+		off += k;
+	    }
+	}
+
+	public void close() throws IOException {
+	    try {
+		flush();
+	    } finally {
+		ch.close();
+	    }
+	}
+    }
+
+    /** Buffered reader of primitives from a channel. */
+    public static final class In implements AutoCloseable {
+	private final FileChannel ch;
+	private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+	In(FileChannel ch) {
+	    this.ch = ch;
+	    buf.limit(0);
+	}
+
+	private void ensure(int n) throws IOException {
+	    if (buf.remaining() >= n) return;
+	    buf.compact();
+	    while (buf.position() < n) {
+		if (ch.read(buf) < 0) throw new EOFException("truncated snapshot");
+	    }
+	    buf.flip();
+	}
+
+	public int getByte() throws IOException { ensure(1); return buf.get(); }
+	public int getShort() throws IOException { ensure(2); return buf.getShort(); }
+	public int getInt() throws IOException { ensure(4); return buf.getInt(); }
+	public long getLong() throws IOException { ensure(8); return buf.getLong(); }
+
+	/** Read a length, then that many bytes. */
+	public byte[] getBytes() throws IOException {
+	    int len = getInt();
+	    if (len < 0) throw new IOException("corrupt snapshot length " + len);
+	    byte b[] = new byte[len];
+	    for (int off = 0; off < len; ) {
+		ensure(1);
+		int k = Math.min(buf.remaining(), len - off);
+		buf.get(b, off, k);
+		off += k;
+	    }
+	    return b;
+	}
+
+	public void close() throws IOException {
+	    ch.close();
+	}
+    }
+
+    /* check that a and b have the same shape and keys */
+    private static boolean sameTree(BTNode a, BTNode b) {
+	ArrayDeque<BTNode> sa = new ArrayDeque<BTNode>(), sb = new ArrayDeque<BTNode>();
+	if (a != null) sa.push(a);
+	if (b != null) sb.push(b);
+	while (!sa.isEmpty() && !sb.isEmpty()) {
+	    BTNode x = sa.pop(), y = sb.pop();
+	    if (!x.element.equals(y.element)
+		|| (x.left == null) != (y.left == null)
+		|| (x.right == null) != (y.right == null)
+		|| BinarySearchTree.size(x) != BinarySearchTree.size(y)
+		|| ((BinarySearchTree.Node) x).count != ((BinarySearchTree.Node) y).count)
+		return false;
+	    if (x.right != null) { sa.push(x.right); sb.push(y.right); }
+	    if (x.left != null) { sa.push(x.left); sb.push(y.left); }
+	}
+	return sa.isEmpty() && sb.isEmpty();
+    }
+
+    /* check that a and b hold the same keys in the same order */
+    private static boolean sameKeys(BinarySearchTree a, BinarySearchTree b) {
+	if (a.size() != b.size()) return false;
+	ArrayDeque<BTNode> sa = new ArrayDeque<BTNode>(), sb = new ArrayDeque<BTNode>();
+	BTNode x = a.root, y = b.root;
+	while ((x != null || !sa.isEmpty()) && (y != null || !sb.isEmpty())) {
+	    for (; x != null; x = x.left) sa.push(x);
+	    for (; y != null; y = y.left) sb.push(y);
+	    x = sa.pop();
+	    y = sb.pop();
+	    if (!x.element.equals(y.element)
+		|| ((BinarySearchTree.Node) x).count != ((BinarySearchTree.Node) y).count)
+		return false;
+	    x = x.right;
+	    y = y.right;
+	}
+	return x == null && sa.isEmpty() && y == null && sb.isEmpty();
+    }
+
+    /*
+      Round trip test: build a tree of n random keys, save it in both
+      layouts, load it back and compare, and time loading against
+      replaying the adds.
+    */
+    public static void main(String[] args) throws IOException {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+	Path file = args.length > 1 ? Paths.get(args[1])
+	    : Files.createTempFile("tree", ".snap");
+	file.toFile().deleteOnExit();
+
+	int keys[] = new Workload(42).uniform(n, Integer.MAX_VALUE);
+	long start = System.nanoTime();
+	BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+	for (int k : keys) tree.addElement(k);
+	double addSecs = (System.nanoTime() - start) / 1e9;
+	keys = null;
+	System.out.printf("Replayed %d adds in %.3f s%n", n, addSecs);
+
+	for (Layout layout : Layout.values()) {
+	    start = System.nanoTime();
+	    save(tree, file, INTEGER, layout);
+	    double saveSecs = (System.nanoTime() - start) / 1e9;
+	    long bytes = Files.size(file);
+
+	    start = System.nanoTime();
+	    BinarySearchTree<Integer> copy = load(file);
+	    double loadSecs = (System.nanoTime() - start) / 1e9;
+
+	    boolean ok = layout == Layout.PREORDER ? sameTree(tree.root, copy.root)
+		: sameKeys(tree, copy);
+	    System.out.printf("%-8s %d bytes (%.2f per key), save %.3f s, load %.3f s%n",
+			      layout, bytes, (double) bytes / Math.max(1, n),
+			      saveSecs, loadSecs);
+	    if (!ok) {
+		System.out.println("Failed snapshot round trip test " + layout);
+		System.exit(-1);
+	    }
+	    copy = null;
+	}
+
+	// the other codecs, on a small tree
+	BinarySearchTree<String> words = new BinarySearchTree<String>();
+	for (String w : "the quick brown fox jumps over the lazy dog \u00e9t\u00e9".split(" "))
+	    words.addElement(w);
+	save(words, file, STRING, Layout.SORTED);
+	BinarySearchTree<String> w2 = load(file);
+	BinarySearchTree<Long> longs = new BinarySearchTree<Long>();
+	for (long v = -5; v <= 5; v++) longs.addElement(v * 1_000_000_000_000L);
+	save(longs, file, LONG, Layout.PREORDER);
+	BinarySearchTree<Long> l2 = load(file);
+	if (!sameKeys(words, w2) || !sameTree(longs.root, l2.root)) {
+	    System.out.println("Failed snapshot codec test");
+	    System.exit(-1);
+	}
+
+	// a long run of equal keys loads without deep recursion
+	BinarySearchTree<Integer> same = new BinarySearchTree<Integer>();
+	for (int i = 0; i < 50_000; i++) same.addElement(7);
+	save(same, file, INTEGER, Layout.SORTED);
+	BinarySearchTree<Integer> s2 = load(file);
+	if (!sameTree(same.root, s2.root) || s2.count(7) != 50_000) {
+	    System.out.println("Failed snapshot duplicate run test");
+	    System.exit(-1);
+	}
+
+	// a multiset tree keeps its counts, in both layouts
+	BinarySearchTree<Integer> bag = new BinarySearchTree<Integer>(true);
+	for (int k : new Workload(7).uniform(100_000, 1000)) bag.addElement(k);
+	for (Layout layout : Layout.values()) {
+	    save(bag, file, INTEGER, layout);
+	    BinarySearchTree<Integer> b2 = load(file);
+	    boolean ok = b2.isMultiset() && b2.size() == bag.size()
+		&& (layout == Layout.PREORDER ? sameTree(bag.root, b2.root) : sameKeys(bag, b2));
+	    for (int k = 0; ok && k < 1000; k++)
+		ok = b2.count(k) == bag.count(k);
+	    boolean refused = false;
+	    try {
+		load(file, new BinarySearchTree<Integer>());
+	    } catch (IOException e) {
+		refused = true;
+	    }
+	    if (!ok || !refused) {
+		System.out.println("Failed multiset snapshot test " + layout);
+		System.exit(-1);
+	    }
+	}
+	System.out.println("Snapshot round trips ok");
+    }
+}
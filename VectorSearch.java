@@ -0,0 +1,36 @@
+/*
+  Linear search with the Vector API.
+
+  Compilation:  javac --add-modules jdk.incubator.vector VectorSearch.java
+  Execution:    java --add-modules jdk.incubator.vector ...
+
+  Searches.vectorSearch calls this class when it was compiled and the
+  module is present, and falls back to a scalar loop otherwise.
+*/
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+public class VectorSearch {
+    private static final VectorSpecies<Integer> SPECIES =
+	IntVector.SPECIES_PREFERRED;
+
+    /**
+       @returns true iff x is found in a
+       Compares a whole vector of elements of a with x at a time.
+    */
+    public static boolean search(int x, int a[]) {
+	IntVector key = IntVector.broadcast(SPECIES, x);
+	int i = 0;
+	int bound = SPECIES.loopBound(a.length);
+	for (; i < bound; i += SPECIES.length()) {
+	    if (IntVector.fromArray(SPECIES, a, i).eq(key).anyTrue())
+		return true;
+	}
+	// leftover tail
+	for (; i < a.length; i++) {
+	    if (a[i] == x) return true;
+	}
+	return false;
+    }
+}
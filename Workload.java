@@ -0,0 +1,198 @@
+/*
+  Seeded generator of int key streams for tests, drivers and
+  benchmarks.  The same seed always gives the same streams.
+
+  Besides uniform keys it makes the inputs that expose worst cases:
+  sorted and reverse-sorted keys (a degenerate BinarySearchTree),
+  Zipfian keys (skewed access to SelfOrganizingST), few distinct
+  keys, organ-pipe and sawtooth patterns (hard for some sorts).
+
+  Each kind comes as an int[] or as a lazy IntStream.  A stream gets
+  its own generator when it is created, so it is reproducible even
+  if it is consumed later or in pieces.
+
+  USAGE: java Workload kind n [seed]   (prints n keys)
+*/
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class Workload {
+    public static final String KINDS[] = {
+	"uniform", "zipf", "sorted", "reverse", "fewunique", "organpipe", "sawtooth"
+    };
+
+    private final Random rand;
+
+    public Workload(long seed) {
+	rand = new Random(seed);
+    }
+
+    /** @return n keys drawn uniformly from 0..bound-1. */
+    public int[] uniform(int n, int bound) {
+	return uniformStream(n, bound).toArray();
+    }
+
+    public IntStream uniformStream(int n, int bound) {
+	Random r = fork();
+	return IntStream.generate(() -> r.nextInt(bound)).limit(n);
+    }
+
+    /** @return n keys from 0..keys-1, key k drawn with probability
+	proportional to 1/(k+1)^s. */
+    public int[] zipf(int n, int keys, double s) {
+	return zipfStream(n, keys, s).toArray();
+    }
+
+    public IntStream zipfStream(int n, int keys, double s) {
+	ZipfSampler z = new ZipfSampler(keys, s, fork());
+	return IntStream.generate(z::next).limit(n);
+    }
+
+    /** @return 0, 1, ..., n-1. */
+    public int[] sorted(int n) {
+	return sortedStream(n).toArray();
+    }
+
+    public IntStream sortedStream(int n) {
+	return IntStream.range(0, n);
+    }
+
+    /** @return n-1, n-2, ..., 0. */
+    public int[] reverseSorted(int n) {
+	return reverseSortedStream(n).toArray();
+    }
+
+    public IntStream reverseSortedStream(int n) {
+	return IntStream.range(0, n).map(i -> n - 1 - i);
+    }
+
+    /** @return n keys drawn uniformly from only distinct values. */
+    public int[] fewUnique(int n, int distinct) {
+	return fewUniqueStream(n, distinct).toArray();
+    }
+
+    public IntStream fewUniqueStream(int n, int distinct) {
+	return uniformStream(n, distinct);
+    }
+
+    /** @return 0, 1, ..., up to n/2, then back down to 0. */
+    public int[] organPipe(int n) {
+	return organPipeStream(n).toArray();
+    }
+
+    public IntStream organPipeStream(int n) {
+	return IntStream.range(0, n).map(i -> Math.min(i, n - 1 - i));
+    }
+
+    /** @return 0, 1, ..., period-1 repeated. */
+    public int[] sawtooth(int n, int period) {
+	return sawtoothStream(n, period).toArray();
+    }
+
+    public IntStream sawtoothStream(int n, int period) {
+	return IntStream.range(0, n).map(i -> i % period);
+    }
+
+    /**
+       @return n keys of the named kind (one of KINDS) over roughly
+       n distinct values, with the usual parameters: Zipf exponent 1,
+       sqrt(n) distinct values for fewunique, period sqrt(n) for
+       sawtooth.
+    */
+    public IntStream stream(String kind, int n) {
+	int root = Math.max(1, (int) Math.sqrt(n));
+	switch (kind) {
+	case "uniform": return uniformStream(n, Math.max(1, n));
+	case "zipf": return zipfStream(n, Math.max(1, n), 1.0);
+	case "sorted": return sortedStream(n);
+	case "reverse": return reverseSortedStream(n);
+	case "fewunique": return fewUniqueStream(n, root);
+	case "organpipe": return organPipeStream(n);
+	case "sawtooth": return sawtoothStream(n, root);
+	default: throw new IllegalArgumentException("Unknown workload " + kind);
+	}
+    }
+
+    public int[] generate(String kind, int n) {
+	return stream(kind, n).toArray();
+    }
+
+    /* new generator for one stream, seeded from this one */
+    private Random fork() {
+	return new Random(rand.nextLong());
+    }
+
+    /*
+      Zipf sampler by rejection-inversion (Hormann and Derflinger,
+      1996).  Constant time and space per sample, whatever the number
+      of keys.
+    */
+    private static class ZipfSampler {
+	private final int n;
+	private final double s;
+	private final Random rand;
+	private final double hIntegralX1, hIntegralN, sBound;
+
+	ZipfSampler(int n, double s, Random rand) {
+	    if (n < 1 || s <= 0)
+		throw new IllegalArgumentException("Zipf needs keys >= 1 and s > 0");
+	    this.n = n;
+	    this.s = s;
+	    this.rand = rand;
+	    hIntegralX1 = hIntegral(1.5) - 1;
+	    hIntegralN = hIntegral(n + 0.5);
+	    sBound = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+	}
+
+	/* key in 0..n-1 */
+	int next() {
+	    while (true) {
+		double u = hIntegralN + rand.nextDouble() * (hIntegralX1 - hIntegralN);
+		double x = hIntegralInverse(u);
+		int k = (int) (x + 0.5);
+		if (k < 1) k = 1;
+		else if (k > n) k = n;
+		if (k - x <= sBound || u >= hIntegral(k + 0.5) - h(k))
+		    return k - 1;
+	    }
+	}
+
+	private double h(double x) {
+	    return Math.exp(-s * Math.log(x));
+	}
+
+	private double hIntegral(double x) {
+	    double logX = Math.log(x);
+	    return helper2((1 - s) * logX) * logX;
+	}
+
+	private double hIntegralInverse(double x) {
+	    double t = x * (1 - s);
+	    if (t < -1) t = -1;
+	    return Math.exp(helper1(t) * x);
+	}
+
+	/* log(1+x)/x, accurate near 0 */
+	private static double helper1(double x) {
+	    if (Math.abs(x) > 1e-8) return Math.log1p(x) / x;
+	    return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+	}
+
+	/* (exp(x)-1)/x, accurate near 0 */
+	private static double helper2(double x) {
+	    if (Math.abs(x) > 1e-8) return Math.expm1(x) / x;
+	    return 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+	}
+    }
+
+    public static void main(String[] args) {
+	if (args.length < 2) {
+	    System.err.println("USAGE: java Workload kind n [seed]");
+	    System.exit(-1);
+	}
+	long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+	new Workload(seed).stream(args[0], Integer.parseInt(args[1]))
+	    .forEach(System.out::println);
+    }
+}
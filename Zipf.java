@@ -3,10 +3,16 @@
 
   Compilation: javac -cp .:WHEREVER/algs4.jar Zipf.java
   Running: java -cp .:WHEREVER/algs4.jar Zipf DESIRED_NUM < foo.dat
+       or: java -cp .:WHEREVER/algs4.jar Zipf DESIRED_NUM -checkpoint counts.ckpt
 
+  With -checkpoint the counts come from a FreqCheckpoint file, such
+  as one merged from many counting jobs, instead of from stdin.  Only
+  the top DESIRED_NUM words are kept in memory.
 */
 
 import edu.princeton.cs.algs4.*;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Scanner;
 import java.awt.Font;
 
@@ -52,15 +58,31 @@ public class Zipf {
     /**
      * @param args the command-line arguments
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 	if (args.length < 1) {
 	    System.err.println("USAGE: java Zipf numpts < input_text_file");
+	    System.err.println("USAGE: java Zipf numpts -checkpoint counts_file");
 	    System.exit(-1);
 	}
 	int num = Integer.parseInt(args[0]); // num to count
-        Scanner scanner = new Scanner(System.in); // scan stdin for input
         SequentialSearchST st = new SequentialSearchST();
 
+	if (args.length > 2 && args[1].equals("-checkpoint")) {
+	    // only the top num words go in the table
+	    long counts[] = new long[num];
+	    String top[] = FreqCheckpoint.topN(Paths.get(args[2]), num, counts);
+	    for (int i = 0; i < top.length; i++)
+		st.put(top[i], (int) Math.min(counts[i], Integer.MAX_VALUE));
+	    num = top.length;
+	    if (num == 0) return;
+	    plot(st,num);
+	    for (String s : st.topN(num)) {
+		System.out.println(s + " " + st.get(s));
+	    }
+	    return;
+	}
+
+        Scanner scanner = new Scanner(System.in); // scan stdin for input
 	// Get words, insert into table.
         while (scanner.hasNext()) {
             String key = scanner.next();